@@ -0,0 +1,60 @@
+package org.wipo.das.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wipo.das.requests.ObtainFileIdAndUploadUrl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SHA-256 of a manifest file through {@link ObtainFileIdAndUploadUrl#getFileChecksum(String)}.
+ *
+ * <p>The file stays in the page cache after the first read, so this measures hashing and the read path,
+ * not the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    public int fileSize;
+
+    private Path dir;
+    private String file;
+
+    @Setup(Level.Trial)
+    public void createFile() throws Exception {
+        dir = Fixtures.tempDir("checksum");
+        byte[] content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        file = Files.write(dir.resolve("document.pdf"), content).toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws Exception {
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public String getFileChecksum() throws Exception {
+        return ObtainFileIdAndUploadUrl.getFileChecksum(file);
+    }
+}
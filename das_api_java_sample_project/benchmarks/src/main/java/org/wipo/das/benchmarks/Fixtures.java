@@ -0,0 +1,88 @@
+package org.wipo.das.benchmarks;
+
+import com.opencsv.CSVWriter;
+import org.wipo.das.restapitest.ConfigManager;
+import org.wipo.das.state.RegistrationRow;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Scratch files shared by the benchmarks: a working folder, a registration manifest and a
+ * {@link ConfigManager} pointing at them.
+ */
+final class Fixtures {
+
+    static final String[] REGISTRATION_HEADER = {"file_reference", "file_location", "application_number",
+            "application_date", "priority_number", "priority_date", "document_category", "application_category",
+            "das_code", "file_id", "registered", "ack_id"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return a new temporary folder, removed by {@link #delete(Path)}.
+     */
+    static Path tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("das-bench-" + prefix);
+    }
+
+    /**
+     * Writes a registration manifest with {@code rows} pending rows.
+     */
+    static Path registrationCsv(Path dir, int rows) throws IOException {
+        Path csv = dir.resolve("registration.csv");
+        try (CSVWriter writer = new CSVWriter(new FileWriter(csv.toFile()))) {
+            writer.writeNext(REGISTRATION_HEADER);
+            for (int i = 1; i <= rows; i++) {
+                writer.writeNext(new String[]{"ref_" + i, dir.resolve("doc_" + i + ".pdf").toString(),
+                        "PCT/IB2022/" + (100000 + i), "2022-03-08", "PCT/IB2021/" + (500000 + i), "2021-08-27",
+                        "patent", "priority document", "AB21", "", "false", ""});
+            }
+        }
+        return csv;
+    }
+
+    /**
+     * Writes {@code config.properties} (with logging reduced to errors) and opens a {@link ConfigManager}
+     * on it and the registration manifest {@code csv}.
+     */
+    static ConfigManager configManager(Path dir, Properties settings, Path csv) throws Exception {
+        Path log4j = dir.resolve("log4j2.xml");
+        Files.writeString(log4j, "<Configuration status=\"warn\"><Appenders><Console name=\"c\"/></Appenders>"
+                + "<Loggers><Root level=\"error\"><AppenderRef ref=\"c\"/></Root></Loggers></Configuration>");
+        Properties config = new Properties();
+        config.setProperty("log4jConfigPath", log4j.toString());
+        config.putAll(settings);
+        Path configFile = dir.resolve("config.properties");
+        try (Writer writer = Files.newBufferedWriter(configFile)) {
+            config.store(writer, "benchmark fixture");
+        }
+        return new ConfigManager(configFile.toString(), csv.toString(), RegistrationRow.Columns::new);
+    }
+
+    /**
+     * Removes {@code dir} and everything below it.
+     */
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.wipo.das.benchmarks;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wipo.das.requests.GetFileFromDas;
+import org.wipo.das.requests.GetOsfAckId;
+import org.wipo.das.requests.ObtainFileIdAndUploadUrl;
+import org.wipo.das.requests.RegisterFile;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side cost of the JSON request classes: building the request body, serializing it, and parsing a
+ * typical response.
+ *
+ * <p>The client answers every call from an interceptor with a canned response, so no network is involved.
+ * The interceptor writes the request body out, so body encoding is part of the measured cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark {
+
+    private static final String DAS = "https://das.example/das-api/v1/requests";
+    private static final String TOKEN = "eyJhbGciOiJFUzI1NiJ9.benchmark.token";
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private Path dir;
+    private ConfigManager configManager;
+    private OkHttpClient client;
+
+    @Setup(Level.Trial)
+    public void createClient() throws Exception {
+        // The request classes log through ConfigManager's logger; initialise it with errors only
+        dir = Fixtures.tempDir("request");
+        configManager = Fixtures.configManager(dir, new Properties(), Fixtures.registrationCsv(dir, 1));
+        client = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    Request request = chain.request();
+                    if (request.body() != null) {
+                        request.body().writeTo(new Buffer());
+                    }
+                    return new Response.Builder()
+                            .request(request)
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(responseFor(request.url().encodedPath()), JSON))
+                            .build();
+                })
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeClient() throws Exception {
+        configManager.close();
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public String[] obtainFileIdAndUploadUrl() throws Exception {
+        return new ObtainFileIdAndUploadUrl(client, DAS, TOKEN, "test_14", "pdf",
+                "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08").getFileIdAndUploadUrl();
+    }
+
+    @Benchmark
+    public String registerFile() throws Exception {
+        return new RegisterFile(client, DAS, TOKEN, "patent", "PCT/IB2021/057894", "2021-08-27", "AB21",
+                "priority document", "PCT/IB2022/052028", "2022-03-08",
+                "f5400f0a-04c4-44e7-b97c-5d30f2632a6c").registerFile();
+    }
+
+    @Benchmark
+    public String getOsfAckId() throws Exception {
+        return new GetOsfAckId(client, DAS, TOKEN, "patent", "PCT/IB2021/057894", "2021-08-27", "AB21").getAck();
+    }
+
+    @Benchmark
+    public String getFileFromDas() throws Exception {
+        return new GetFileFromDas(client, DAS, TOKEN, "patent", "PCT/IB2021/057894", "2021-08-27", "OSF4c1e9a2b").getUrl();
+    }
+
+    private static String responseFor(String path) {
+        if (path.endsWith("/files/url-uploads")) {
+            return JsonParsingBenchmark.UPLOAD_RESPONSE;
+        }
+        if (path.endsWith("/files/url-downloads")) {
+            return "{\"fileDownloadUrl\":\"https://storage.example/das/PCT_IB2021_057894.pdf"
+                    + "?X-Amz-Algorithm=AWS4-HMAC-SHA256&X-Amz-Expires=900&X-Amz-Signature=0123456789abcdef\"}";
+        }
+        return "{\"requestAckId\":\"ACKbbeaf5e9\"}";
+    }
+}
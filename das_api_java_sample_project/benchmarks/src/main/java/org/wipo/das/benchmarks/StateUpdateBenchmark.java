@@ -0,0 +1,70 @@
+package org.wipo.das.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link ConfigManager#updateCsvData(int, int, String)} call on manifests of different sizes, for
+ * each state store.
+ *
+ * <p>Updates walk through the rows in order. Journal compaction, which rewrites the whole CSV every
+ * {@code stateJournalCompactRecords} updates, is part of the measured cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateUpdateBenchmark {
+
+    private static final int REGISTERED_COLUMN = 10;
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    @Param({"csv", "h2"})
+    public String stateStore;
+
+    private Path dir;
+    private ConfigManager configManager;
+    private int nextRow;
+
+    @Setup(Level.Trial)
+    public void openManifest() throws Exception {
+        dir = Fixtures.tempDir("state");
+        Properties settings = new Properties();
+        settings.setProperty("stateStore", stateStore);
+        settings.setProperty("stateExportCsv", "false");
+        configManager = Fixtures.configManager(dir, settings, Fixtures.registrationCsv(dir, rows));
+    }
+
+    @TearDown(Level.Trial)
+    public void closeManifest() throws Exception {
+        configManager.close();
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public void updateCsvData() {
+        int row = nextRow % rows + 1;
+        configManager.updateCsvData(row, REGISTERED_COLUMN, (nextRow / rows) % 2 == 0 ? "true" : "false");
+        nextRow++;
+    }
+}
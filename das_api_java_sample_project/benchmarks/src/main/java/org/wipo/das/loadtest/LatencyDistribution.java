@@ -0,0 +1,109 @@
+package org.wipo.das.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Random delay in milliseconds, parsed from a spec.
+ *
+ * <p>Supported specs:
+ * <ul>
+ *   <li>{@code 0} or {@code fixed:<ms>} – always the same delay (a bare number is read as fixed)</li>
+ *   <li>{@code uniform:<min>:<max>} – evenly spread between {@code min} and {@code max}</li>
+ *   <li>{@code lognormal:<median>:<p99>} – log-normal with the given median and 99th percentile, for the
+ *       long tail typical of real services</li>
+ * </ul>
+ */
+public final class LatencyDistribution {
+
+    /** z-score of the 99th percentile of the standard normal distribution. */
+    private static final double Z_99 = 2.3263;
+
+    private final String spec;
+    private final String kind;
+    private final double first;
+    private final double second;
+
+    private LatencyDistribution(String spec, String kind, double first, double second) {
+        this.spec = spec;
+        this.kind = kind;
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * @param spec e.g. {@code 20}, {@code uniform:10:50} or {@code lognormal:20:200}; blank means no delay.
+     * @throws IllegalArgumentException if the spec cannot be parsed.
+     */
+    public static LatencyDistribution parse(String spec) {
+        String trimmed = spec == null ? "" : spec.trim();
+        if (trimmed.isEmpty()) {
+            return new LatencyDistribution("0", "fixed", 0, 0);
+        }
+        String[] parts = trimmed.split(":");
+        try {
+            switch (parts[0]) {
+                case "fixed":
+                    requireParts(trimmed, parts, 2);
+                    return new LatencyDistribution(trimmed, "fixed", nonNegative(trimmed, parts[1]), 0);
+                case "uniform": {
+                    requireParts(trimmed, parts, 3);
+                    double min = nonNegative(trimmed, parts[1]);
+                    double max = nonNegative(trimmed, parts[2]);
+                    if (max < min) {
+                        throw new IllegalArgumentException("Maximum below minimum in latency spec: " + trimmed);
+                    }
+                    return new LatencyDistribution(trimmed, "uniform", min, max);
+                }
+                case "lognormal": {
+                    requireParts(trimmed, parts, 3);
+                    double median = nonNegative(trimmed, parts[1]);
+                    double p99 = nonNegative(trimmed, parts[2]);
+                    if (median <= 0 || p99 < median) {
+                        throw new IllegalArgumentException("Log-normal latency needs 0 < median <= p99: " + trimmed);
+                    }
+                    // mu and sigma of the underlying normal distribution
+                    return new LatencyDistribution(trimmed, "lognormal", Math.log(median), Math.log(p99 / median) / Z_99);
+                }
+                default:
+                    requireParts(trimmed, parts, 1);
+                    return new LatencyDistribution(trimmed, "fixed", nonNegative(trimmed, parts[0]), 0);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid latency spec: " + trimmed, e);
+        }
+    }
+
+    /**
+     * @return a random delay in milliseconds.
+     */
+    public long sampleMillis() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (kind) {
+            case "uniform":
+                return Math.round(first + random.nextDouble() * (second - first));
+            case "lognormal":
+                return Math.round(Math.exp(first + second * random.nextGaussian()));
+            default:
+                return Math.round(first);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    private static void requireParts(String spec, String[] parts, int expected) {
+        if (parts.length != expected) {
+            throw new IllegalArgumentException("Invalid latency spec: " + spec);
+        }
+    }
+
+    private static double nonNegative(String spec, String value) {
+        double parsed = Double.parseDouble(value);
+        if (parsed < 0) {
+            throw new IllegalArgumentException("Negative value in latency spec: " + spec);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,471 @@
+package org.wipo.das.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the OAuth server, the DAS API and the pre-signed storage URLs, for load tests.
+ *
+ * <p>Serves, on the loopback interface:
+ * <ul>
+ *   <li>{@code POST {issuer}/access_token}</li>
+ *   <li>{@code POST} and {@code PUT {url}/files/url-uploads}, {@code GET {url}/files?fileId=}</li>
+ *   <li>{@code POST {url}/registrations}, {@code GET {url}/registrations/certificates}</li>
+ *   <li>{@code POST {url}/retrievals}, {@code POST {url}/files/url-downloads}</li>
+ *   <li>the pre-signed upload ({@code PUT}) and download ({@code GET}, with {@code Range} support) URLs it hands out</li>
+ * </ul>
+ * A status poll reports a file as still processing until a {@code mockProcessing} delay after its upload,
+ * then as accepted. A download URL is refused with 404 until a {@code mockDocumentDelay} after the
+ * retrieval it is asked for was registered. Request bodies are read but not validated.
+ *
+ * <p>Settings (all optional):
+ * <ul>
+ *   <li>{@code mockPort} – port to listen on (default 0, any free port)</li>
+ *   <li>{@code mockLatency} – delay added to every request, as a {@link LatencyDistribution} spec (default 0)</li>
+ *   <li>{@code mockErrorRate} – fraction of requests answered with 500 after the delay (default 0)</li>
+ *   <li>{@code mockThrottleRate} – fraction of requests answered at once with 429 and {@code Retry-After} (default 0)</li>
+ *   <li>{@code mockRetryAfterSeconds} – the {@code Retry-After} sent with a 429 (default 1)</li>
+ *   <li>{@code mockProcessing} – time DAS takes to process an upload, as a spec (default {@code uniform:500:2000})</li>
+ *   <li>{@code mockDocumentDelay} – time until a registered retrieval has its document, as a spec (default 0)</li>
+ *   <li>{@code mockDocumentBytes}, {@code mockCertificateBytes} – size of retrieved documents and certificates (default 65536 / 16384)</li>
+ *   <li>{@code mockTokenLifetimeSeconds} – {@code expires_in} of access tokens (default 3600)</li>
+ * </ul>
+ * Latency, error and throttle rates can be set per {@link Stage} by appending its key, e.g.
+ * {@code mockLatencyRegistration=lognormal:50:400} or {@code mockThrottleRateUpload=0.05}. The token
+ * endpoint ignores the global error and throttle rates and only uses {@code mockErrorRateToken} and
+ * {@code mockThrottleRateToken}, since a failed token call ends a whole flow.
+ */
+public final class MockDas implements AutoCloseable {
+
+    /**
+     * The endpoints served, each with its own settings and {@link StageStats}.
+     */
+    public enum Stage {
+        TOKEN("Token"),
+        UPLOAD_URL("UploadUrl"),
+        UPLOAD("Upload"),
+        STATUS("Status"),
+        REGISTRATION("Registration"),
+        RETRIEVAL("Retrieval"),
+        DOWNLOAD_URL("DownloadUrl"),
+        DOWNLOAD("Download"),
+        CERTIFICATE("Certificate");
+
+        private final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the suffix of the per-stage settings, e.g. {@code Registration}.
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private static final String OAUTH_PATH = "/oauth2";
+    private static final String DAS_PATH = "/das-api/v1/requests";
+    private static final String UPLOAD_PATH = "/storage/uploads/";
+    private static final String DOCUMENT_PATH = "/storage/documents/";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern FILE_ID = Pattern.compile("\"fileId\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern OSF_ACK_ID = Pattern.compile("\"osfAckId\"\\s*:\\s*\"([^\"]*)\"");
+
+    static {
+        // The JDK server leaves Nagle on by default; with delayed ACKs on the client that adds ~40 ms to every
+        // response written in two parts, which would swamp the latencies being measured. Read once, when the
+        // first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String baseUrl;
+    private final Map<Stage, StageSettings> stageSettings = new EnumMap<>(Stage.class);
+    private final LatencyDistribution processing;
+    private final LatencyDistribution documentDelay;
+    private final int retryAfterSeconds;
+    private final long tokenLifetimeSeconds;
+    private final byte[] document;
+    private final byte[] certificate;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong ackIds = new AtomicLong();
+    private final Map<String, Long> documentsReadyAt = new ConcurrentHashMap<>();
+    private volatile Map<Stage, StageStats> stats = newStats();
+
+    private MockDas(Properties config) throws IOException {
+        for (Stage stage : Stage.values()) {
+            stageSettings.put(stage, new StageSettings(config, stage));
+        }
+        this.processing = LatencyDistribution.parse(config.getProperty("mockProcessing", "uniform:500:2000"));
+        this.documentDelay = LatencyDistribution.parse(config.getProperty("mockDocumentDelay", "0"));
+        this.retryAfterSeconds = Integer.parseInt(config.getProperty("mockRetryAfterSeconds", "1").trim());
+        this.tokenLifetimeSeconds = Long.parseLong(config.getProperty("mockTokenLifetimeSeconds", "3600").trim());
+        this.document = pdf(Integer.parseInt(config.getProperty("mockDocumentBytes", "65536").trim()));
+        this.certificate = pdf(Integer.parseInt(config.getProperty("mockCertificateBytes", "16384").trim()));
+
+        int port = Integer.parseInt(config.getProperty("mockPort", "0").trim());
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        // Injected latency is a sleep; on virtual threads it costs no platform thread
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        this.baseUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Starts a mock on the loopback interface.
+     *
+     * @param config {@code mock*} settings; other keys are ignored.
+     * @return the running mock; {@link #close()} stops it.
+     * @throws IOException if the port cannot be bound.
+     */
+    public static MockDas start(Properties config) throws IOException {
+        return new MockDas(config);
+    }
+
+    /**
+     * Runs the mock on its own, for pointing the sample flows at it by hand.
+     *
+     * @param args {@code [0]} optional properties file with {@code mock*} settings.
+     */
+    public static void main(String[] args) throws IOException {
+        Properties config = new Properties();
+        if (args.length > 0) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(args[0]))) {
+                config.load(reader);
+            }
+        }
+        MockDas mock = start(config);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> mock.printStats(System.out), "mock-das-stats"));
+        System.out.println("Mock DAS listening, set in config.properties:");
+        System.out.println("issuer=" + mock.getIssuerUrl());
+        System.out.println("url=" + mock.getDasUrl());
+    }
+
+    /**
+     * @return value for {@code issuer} in {@code config.properties}.
+     */
+    public String getIssuerUrl() {
+        return baseUrl + OAUTH_PATH;
+    }
+
+    /**
+     * @return value for {@code url} in {@code config.properties}.
+     */
+    public String getDasUrl() {
+        return baseUrl + DAS_PATH;
+    }
+
+    /**
+     * @return statistics per stage since the start or the last {@link #resetStats()}.
+     */
+    public Map<Stage, StageStats> getStats() {
+        return stats;
+    }
+
+    /**
+     * Starts new statistics, e.g. between two flows.
+     */
+    public void resetStats() {
+        stats = newStats();
+    }
+
+    /**
+     * Prints one line per stage that served requests: count, 429s, 5xx, latency percentiles and peak concurrency.
+     */
+    public void printStats(PrintStream out) {
+        out.printf("%-13s %9s %7s %7s %9s %9s %9s %6s%n", "stage", "requests", "429", "5xx", "p50 ms", "p99 ms", "max ms", "peak");
+        for (Map.Entry<Stage, StageStats> entry : stats.entrySet()) {
+            StageStats stage = entry.getValue();
+            if (stage.getRequests() == 0) {
+                continue;
+            }
+            out.printf("%-13s %9d %7d %7d %9.1f %9.1f %9.1f %6d%n", entry.getKey().getKey(), stage.getRequests(),
+                    stage.getThrottled(), stage.getFailed(), stage.percentileMillis(50), stage.percentileMillis(99),
+                    stage.percentileMillis(100), stage.getPeakInFlight());
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            Stage stage = route(exchange.getRequestMethod(), exchange.getRequestURI().getPath());
+            if (stage == null) {
+                readBody(exchange, false);
+                respondJson(exchange, 404, "{\"error\":\"Not found\"}");
+                return;
+            }
+            StageStats stageStats = stats.get(stage);
+            stageStats.begin();
+            int status = 500;
+            try {
+                status = serve(stage, exchange);
+            } finally {
+                stageStats.end(status, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static Stage route(String method, String path) {
+        if (path.equals(OAUTH_PATH + "/access_token")) {
+            return method.equals("POST") ? Stage.TOKEN : null;
+        }
+        if (path.startsWith(UPLOAD_PATH)) {
+            return method.equals("PUT") ? Stage.UPLOAD : null;
+        }
+        if (path.startsWith(DOCUMENT_PATH)) {
+            return method.equals("GET") ? Stage.DOWNLOAD : null;
+        }
+        if (!path.startsWith(DAS_PATH + "/")) {
+            return null;
+        }
+        switch (method + " " + path.substring(DAS_PATH.length() + 1)) {
+            case "POST files/url-uploads":
+            case "PUT files/url-uploads":
+                return Stage.UPLOAD_URL;
+            case "GET files":
+                return Stage.STATUS;
+            case "POST registrations":
+                return Stage.REGISTRATION;
+            case "GET registrations/certificates":
+                return Stage.CERTIFICATE;
+            case "POST retrievals":
+                return Stage.RETRIEVAL;
+            case "POST files/url-downloads":
+                return Stage.DOWNLOAD_URL;
+            default:
+                return null;
+        }
+    }
+
+    private int serve(Stage stage, HttpExchange exchange) throws IOException {
+        StageSettings settings = stageSettings.get(stage);
+        // Uploads are only counted; other bodies are small and kept for the fields the mock echoes
+        Body body = readBody(exchange, stage != Stage.UPLOAD);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < settings.throttleRate) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+            return respondJson(exchange, 429, "{\"error\":\"Too many requests\"}");
+        }
+        sleep(settings.latency.sampleMillis());
+        if (random.nextDouble() < settings.errorRate) {
+            return respondJson(exchange, 500, "{\"error\":\"Internal server error\"}");
+        }
+
+        switch (stage) {
+            case TOKEN:
+                return respondJson(exchange, 200, String.format(
+                        "{\"access_token\":\"mock-%s\",\"token_type\":\"Bearer\",\"expires_in\":%d}",
+                        UUID.randomUUID(), tokenLifetimeSeconds));
+            case UPLOAD_URL: {
+                String fileId = exchange.getRequestMethod().equals("PUT") ? field(body.text(), FILE_ID) : UUID.randomUUID().toString();
+                String uploadUrl = baseUrl + UPLOAD_PATH + fileId;
+                return respondJson(exchange, 200, exchange.getRequestMethod().equals("PUT")
+                        ? String.format("{\"fileUploadUrl\":\"%s\"}", uploadUrl)
+                        : String.format("{\"fileId\":\"%s\",\"fileUploadUrl\":\"%s\"}", fileId, uploadUrl));
+            }
+            case UPLOAD: {
+                String fileId = exchange.getRequestURI().getPath().substring(UPLOAD_PATH.length());
+                long readyAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(processing.sampleMillis());
+                uploads.put(fileId, new Upload(body.length(), readyAt));
+                return respond(exchange, 200, "application/json", new byte[0], 0, 0);
+            }
+            case STATUS: {
+                String fileId = queryParameter(exchange.getRequestURI().getRawQuery(), "fileId");
+                Upload upload = fileId == null ? null : uploads.get(fileId);
+                if (upload == null) {
+                    return respondJson(exchange, 404, "{\"error\":\"Unknown fileId\"}");
+                }
+                if (System.nanoTime() < upload.readyAtNanos()) {
+                    return respondJson(exchange, 200, String.format("{\"fileId\":\"%s\"}", fileId));
+                }
+                return respondJson(exchange, 200, String.format(
+                        "{\"fileId\":\"%s\",\"fileSizeQuantity\":%d,\"fileStatusCategory\":\"ACCEPTED\"}", fileId, upload.size()));
+            }
+            case REGISTRATION:
+                return respondJson(exchange, 200, String.format("{\"requestAckId\":\"MOCK%012d\"}", ackIds.incrementAndGet()));
+            case RETRIEVAL: {
+                String ackId = String.format("MOCK%012d", ackIds.incrementAndGet());
+                long delay = documentDelay.sampleMillis();
+                if (delay > 0) {
+                    documentsReadyAt.put(ackId, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+                }
+                return respondJson(exchange, 200, String.format("{\"requestAckId\":\"%s\"}", ackId));
+            }
+            case DOWNLOAD_URL: {
+                String ackId = field(body.text(), OSF_ACK_ID);
+                Long readyAt = ackId == null ? null : documentsReadyAt.get(ackId);
+                if (readyAt != null) {
+                    if (System.nanoTime() < readyAt) {
+                        return respondJson(exchange, 404, "{\"error\":\"Document not available yet\"}");
+                    }
+                    documentsReadyAt.remove(ackId);
+                }
+                return respondJson(exchange, 200, String.format("{\"fileDownloadUrl\":\"%s%s%s.pdf\"}",
+                        baseUrl, DOCUMENT_PATH, UUID.randomUUID()));
+            }
+            case DOWNLOAD:
+                return serveDocument(exchange);
+            case CERTIFICATE:
+                return respond(exchange, 200, "application/pdf", certificate, 0, certificate.length);
+            default:
+                return respondJson(exchange, 404, "{\"error\":\"Not found\"}");
+        }
+    }
+
+    /**
+     * Serves the document, or the part of it asked for by a single {@code Range}.
+     */
+    private int serveDocument(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range.trim());
+        if (matcher == null || !matcher.matches()) {
+            return respond(exchange, 200, "application/pdf", document, 0, document.length);
+        }
+        long first = Long.parseLong(matcher.group(1));
+        if (first >= document.length) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + document.length);
+            return respond(exchange, 416, "application/pdf", document, 0, 0);
+        }
+        long last = matcher.group(2).isEmpty() ? document.length - 1
+                : Math.min(Long.parseLong(matcher.group(2)), document.length - 1);
+        exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", first, last, document.length));
+        return respond(exchange, 206, "application/pdf", document, (int) first, (int) (last - first + 1));
+    }
+
+    private static Body readBody(HttpExchange exchange, boolean keep) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            if (keep) {
+                byte[] bytes = in.readAllBytes();
+                return new Body(bytes, bytes.length);
+            }
+            return new Body(null, in.transferTo(OutputStream.nullOutputStream()));
+        }
+    }
+
+    private static int respondJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return respond(exchange, status, "application/json", bytes, 0, bytes.length);
+    }
+
+    private static int respond(HttpExchange exchange, int status, String contentType, byte[] body, int offset, int length)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        // -1 tells the server there is no body
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body, offset, length);
+            }
+        }
+        return status;
+    }
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static String field(String json, Pattern pattern) {
+        Matcher matcher = pattern.matcher(json);
+        return matcher.find() ? matcher.group(1) : UUID.randomUUID().toString();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] pdf(int size) {
+        byte[] content = new byte[Math.max(size, 16)];
+        new Random(size).nextBytes(content);
+        byte[] header = "%PDF-1.4\n".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(header, 0, content, 0, header.length);
+        return content;
+    }
+
+    private static Map<Stage, StageStats> newStats() {
+        Map<Stage, StageStats> stats = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            stats.put(stage, new StageStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Latency and failure injection of one stage; stage-specific keys win over the global ones.
+     */
+    private static final class StageSettings {
+        private final LatencyDistribution latency;
+        private final double errorRate;
+        private final double throttleRate;
+
+        StageSettings(Properties config, Stage stage) {
+            String globalLatency = config.getProperty("mockLatency", "0");
+            this.latency = LatencyDistribution.parse(config.getProperty("mockLatency" + stage.getKey(), globalLatency));
+            // A failed token call ends the whole flow, so only token-specific rates apply to it
+            String globalErrors = stage == Stage.TOKEN ? "0" : config.getProperty("mockErrorRate", "0");
+            String globalThrottles = stage == Stage.TOKEN ? "0" : config.getProperty("mockThrottleRate", "0");
+            this.errorRate = Double.parseDouble(config.getProperty("mockErrorRate" + stage.getKey(), globalErrors).trim());
+            this.throttleRate = Double.parseDouble(config.getProperty("mockThrottleRate" + stage.getKey(), globalThrottles).trim());
+        }
+    }
+
+    private record Upload(long size, long readyAtNanos) {
+    }
+
+    private record Body(byte[] bytes, long length) {
+        String text() {
+            return bytes == null ? "" : new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
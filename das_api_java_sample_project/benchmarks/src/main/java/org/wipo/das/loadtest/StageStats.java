@@ -0,0 +1,88 @@
+package org.wipo.das.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Requests served by one {@link MockDas.Stage}: count, injected 429 and 5xx answers, latency as seen by the
+ * server, and the highest number of requests in flight at once.
+ *
+ * <p>Latency runs from the moment the server starts handling the request until the response is written,
+ * so it includes the injected latency and the transfer of request and response bodies, but not the time
+ * the client queued the call.
+ */
+public final class StageStats {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private long[] latencyNanos = new long[1024];
+    private int count;
+
+    void begin() {
+        int now = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(now, Math::max);
+    }
+
+    void end(int status, long elapsedNanos) {
+        inFlight.decrementAndGet();
+        if (status == 429) {
+            throttled.increment();
+        } else if (status >= 500) {
+            failed.increment();
+        }
+        synchronized (this) {
+            if (count == latencyNanos.length) {
+                latencyNanos = Arrays.copyOf(latencyNanos, count * 2);
+            }
+            latencyNanos[count++] = elapsedNanos;
+        }
+    }
+
+    /**
+     * @return number of requests answered.
+     */
+    public synchronized int getRequests() {
+        return count;
+    }
+
+    /**
+     * @return requests answered with 429.
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return requests answered with a 5xx status.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the most requests that were being handled at the same time.
+     */
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return latency at that percentile (nearest rank) in milliseconds, or 0 if nothing was recorded.
+     */
+    public double percentileMillis(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(latencyNanos, count);
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1] / 1e6;
+    }
+}
@@ -0,0 +1,239 @@
+package org.wipo.das.assertion;
+
+import okhttp3.Authenticator;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.requests.DasJson;
+import org.wipo.das.requests.GetToken;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the OAuth2 access token and keeps it fresh for the lifetime of a run.
+ *
+ * <p>Tokens are obtained with {@link JwtAssertionGenerator} + {@link GetToken}. After each exchange a
+ * background refresh is scheduled {@code tokenRefreshSkewSeconds} (default 60) before {@code expires_in}
+ * elapses, so callers of {@link #getToken()} normally never wait on the OAuth server. Concurrent refresh
+ * requests are coalesced into a single token call.
+ *
+ * <p>The provider is also an OkHttp {@link Authenticator}: a DAS call answered with 401 is retried once
+ * with a freshly obtained token.
+ */
+public class AccessTokenProvider implements Authenticator, Closeable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final ConfigManager config;
+    private final OkHttpClient client;
+    private final JwtAssertionGenerator assertionGenerator;
+    private final long refreshSkewMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile CachedToken current;
+    private CompletableFuture<CachedToken> pendingRefresh;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     * @param configManager Provides {@code issuer}, {@code scope} and the assertion settings.
+     * @param client shared transport used for the token exchange.
+     */
+    public AccessTokenProvider(ConfigManager configManager, OkHttpClient client) {
+        this.config = configManager;
+        this.client = client;
+        this.assertionGenerator = new JwtAssertionGenerator(configManager);
+        this.refreshSkewMillis = TimeUnit.SECONDS.toMillis(
+                Long.parseLong(configManager.getConfig().getProperty("tokenRefreshSkewSeconds", "60").trim()));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "das-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns a valid access token, fetching one only when none is cached or the cached one expired.
+     *
+     * @return OAuth2 access token string.
+     * @throws IOException when the token cannot be obtained.
+     */
+    public String getToken() throws IOException {
+        CachedToken token = current;
+        if (token != null && !token.isExpired()) {
+            return token.value;
+        }
+        return await(refreshAsync()).value;
+    }
+
+    /**
+     * Non-blocking form of {@link #getToken()} for callers on scheduler or callback threads.
+     *
+     * @return future of a valid access token: already completed when one is cached, otherwise completed
+     *         by the (coalesced) refresh on the token thread.
+     */
+    public CompletableFuture<String> getTokenAsync() {
+        CachedToken token = current;
+        if (token != null && !token.isExpired()) {
+            return CompletableFuture.completedFuture(token.value);
+        }
+        return refreshAsync().thenApply(fresh -> fresh.value);
+    }
+
+    /**
+     * @return whether a token is cached and not expired, without fetching one.
+     */
+    public boolean hasValidToken() {
+        CachedToken token = current;
+        return token != null && !token.isExpired();
+    }
+
+    /**
+     * Forces a new token unless another caller already replaced {@code staleToken}.
+     *
+     * @param staleToken token that was rejected; {@code null} to refresh unconditionally.
+     * @return a token different from {@code staleToken}.
+     * @throws IOException when the token cannot be obtained.
+     */
+    public String refresh(String staleToken) throws IOException {
+        CachedToken token = current;
+        if (token != null && staleToken != null && !token.value.equals(staleToken) && !token.isExpired()) {
+            return token.value;
+        }
+        return await(refreshAsync()).value;
+    }
+
+    /**
+     * Returns a client sharing the pool of {@code base} that retries 401 responses through this provider.
+     *
+     * @param base shared transport (see {@link org.wipo.das.requests.DasHttpClient}).
+     * @return client with this provider installed as its authenticator.
+     */
+    public OkHttpClient authenticating(OkHttpClient base) {
+        return base.newBuilder().authenticator(this).build();
+    }
+
+    @Override
+    public Request authenticate(Route route, Response response) throws IOException {
+        String authorization = response.request().header("Authorization");
+        // Only bearer-authenticated DAS calls are retried, and only once
+        if (authorization == null || !authorization.startsWith("Bearer ") || response.priorResponse() != null) {
+            return null;
+        }
+        logger.warn("Received 401 from " + response.request().url().encodedPath() + ", retrying with a fresh token");
+        String freshToken = refresh(authorization.substring("Bearer ".length()));
+        return response.request().newBuilder()
+                .header("Authorization", "Bearer " + freshToken)
+                .build();
+    }
+
+    /**
+     * Stops the background refresh.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private synchronized CompletableFuture<CachedToken> refreshAsync() {
+        if (pendingRefresh != null) {
+            return pendingRefresh;
+        }
+        CompletableFuture<CachedToken> refresh = new CompletableFuture<>();
+        pendingRefresh = refresh;
+        scheduler.execute(() -> {
+            try {
+                CachedToken token = fetchToken();
+                current = token;
+                scheduleProactiveRefresh(token);
+                refresh.complete(token);
+            } catch (Exception e) {
+                logger.error("Failed to refresh the access token", e);
+                scheduleRetry();
+                refresh.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    pendingRefresh = null;
+                }
+            }
+        });
+        return refresh;
+    }
+
+    private CachedToken fetchToken() throws Exception {
+        logger.info("Going to retrieve the access token from the oauth server");
+        String assertion = assertionGenerator.generateAssertion();
+        String response = GetToken.getAccessToken(client, assertion,
+                config.getConfig().getProperty("issuer"), config.getConfig().getProperty("scope"));
+        String[] fields = DasJson.fields(response, "access_token", "expires_in");
+        String accessToken = fields[0];
+        if (accessToken == null) {
+            throw new IOException("The token response has no access_token");
+        }
+        long expiresIn = fields[1] == null ? 0 : (long) Double.parseDouble(fields[1]);
+        logger.info("Access token obtained, expires in " + expiresIn + " seconds.");
+        long expiresAt = expiresIn > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresIn) : Long.MAX_VALUE;
+        return new CachedToken(accessToken, expiresAt);
+    }
+
+    private synchronized void scheduleProactiveRefresh(CachedToken token) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+        if (token.expiresAt == Long.MAX_VALUE || scheduler.isShutdown()) {
+            return;
+        }
+        long lifetime = token.expiresAt - System.currentTimeMillis();
+        // Refresh ahead of expiry; for very short-lived tokens refresh at half-life instead
+        long delay = Math.max(lifetime - refreshSkewMillis, lifetime / 2);
+        scheduledRefresh = scheduler.schedule(this::refreshAsync, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void scheduleRetry() {
+        CachedToken token = current;
+        // Keep trying in the background while the cached token is still usable
+        if (token != null && !token.isExpired() && !scheduler.isShutdown()) {
+            long delay = Math.min(TimeUnit.SECONDS.toMillis(10), (token.expiresAt - System.currentTimeMillis()) / 2);
+            scheduledRefresh = scheduler.schedule(this::refreshAsync, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static CachedToken await(CompletableFuture<CachedToken> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the access token", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to obtain the access token", cause);
+        }
+    }
+
+    private static final class CachedToken {
+        private final String value;
+        private final long expiresAt;
+
+        private CachedToken(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
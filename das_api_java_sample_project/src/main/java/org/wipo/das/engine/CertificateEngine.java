@@ -0,0 +1,114 @@
+package org.wipo.das.engine;
+
+import okhttp3.OkHttpClient;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.assertion.AccessTokenProvider;
+import org.wipo.das.metrics.DasMetrics;
+import org.wipo.das.requests.GetCertificateFromDas;
+import org.wipo.das.restapitest.ConfigManager;
+import org.wipo.das.state.ManifestRow;
+import org.wipo.das.state.RegistrationRow;
+import org.wipo.das.state.StateStore;
+import org.wipo.das.trace.RowTrace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads the registration certificate of every registered row of the registration manifest.
+ *
+ * <p>Registered rows come from the {@link StateStore} in batches and run on a {@link RowRunner}, so
+ * {@code executionMode} decides whether they run one after the other or on virtual threads. Each
+ * certificate is saved to {@code localFolder} as {@code certificate_<number>_<date>.pdf}.
+ */
+public class CertificateEngine {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final ConfigManager configManager;
+    private final OkHttpClient client;
+    private final AccessTokenProvider tokenProvider;
+    private final String dasEndPoint;
+    private final String downloadLocation;
+    private final int batchSize;
+    private final RegistrationRow.Columns columns;
+
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param configManager configuration and the loaded registration CSV.
+     * @param client shared transport (see {@link org.wipo.das.requests.DasHttpClient}).
+     * @param tokenProvider source of the current access token.
+     */
+    public CertificateEngine(ConfigManager configManager, OkHttpClient client, AccessTokenProvider tokenProvider) {
+        this.configManager = configManager;
+        this.client = client;
+        this.tokenProvider = tokenProvider;
+        this.dasEndPoint = configManager.getConfig().getProperty("url");
+        this.downloadLocation = configManager.getConfig().getProperty("localFolder");
+        this.batchSize = Integer.parseInt(configManager.getConfig().getProperty("stateBatchSize", "500").trim());
+        this.columns = new RegistrationRow.Columns(configManager.getConfig());
+    }
+
+    /**
+     * Downloads the certificates of all registered rows and waits until they are done.
+     *
+     * @throws IOException if the state store cannot be read.
+     */
+    public void run() throws IOException {
+        StateStore stateStore = configManager.getStateStore();
+        int submitted = 0;
+        // Sequential by default; executionMode=virtual runs each row on its own virtual thread
+        try (RowRunner rowRunner = RowRunner.fromConfig(configManager.getConfig())) {
+            // Only registered rows, fetched in batches from the state store
+            int afterRow = 0;
+            List<ManifestRow> batch;
+            while (!(batch = stateStore.nextRows(StateStore.DONE, afterRow, batchSize)).isEmpty()) {
+                for (ManifestRow registered : batch) {
+                    rowRunner.submit(() -> downloadCertificate(new RegistrationRow(registered, columns)));
+                }
+                submitted += batch.size();
+                afterRow = batch.get(batch.size() - 1).getIndex();
+            }
+        }
+        logger.info(String.format("Certificates finished: %d submitted, %d downloaded, %d failed",
+                submitted, downloaded.get(), failed.get()));
+    }
+
+    /**
+     * Downloads the registration certificate of one registration CSV row, if it is registered.
+     */
+    @SuppressWarnings("try")
+    private void downloadCertificate(RegistrationRow line) {
+        // Skip rows that are not registered yet
+        if (!line.isRegistered()) {
+            return;
+        }
+        String priorityNumber = line.getPriorityNumber();
+        String priorityDate = line.getPriorityDate();
+        String fileName = "certificate_" + priorityNumber.replace("/", "_") + "_" + priorityDate + ".pdf";
+        RowTrace trace = RowTrace.start("certificates", line.getIndex(), priorityNumber + " " + priorityDate);
+        trace.fileId(line.getFileId());
+        trace.ackId(line.getAckId());
+        String outcome = "failed";
+        try (RowTrace.Scope scope = trace.enter(); RowTrace.Stage downloading = trace.stage("certificate")) {
+            // Current (proactively refreshed) token
+            GetCertificateFromDas getCertificateFromDas = new GetCertificateFromDas(client, dasEndPoint, tokenProvider.getToken(),
+                    line.getDocumentCategory(), priorityNumber, priorityDate, line.getDasCode(), downloadLocation, fileName);
+            if (getCertificateFromDas.getCertificate()) {
+                downloading.bytes(Files.size(Paths.get(downloadLocation, fileName)));
+                outcome = "downloaded";
+            }
+            downloading.outcome(outcome);
+        } catch (IOException e) {
+            logger.error(String.format("Failed to download the certificate of '%s'", priorityNumber), e);
+        }
+        (outcome.equals("downloaded") ? downloaded : failed).incrementAndGet();
+        DasMetrics.row("certificates", outcome);
+        trace.end(outcome);
+    }
+}
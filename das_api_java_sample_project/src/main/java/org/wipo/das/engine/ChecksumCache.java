@@ -0,0 +1,140 @@
+package org.wipo.das.engine;
+
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.requests.ObtainFileIdAndUploadUrl;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of file checksums keyed by canonical path, size and last-modified time.
+ *
+ * <p>A file whose size and modification time match a cached entry costs a single {@code stat} instead
+ * of a full read. The cache file holds one tab-separated line per computed checksum
+ * ({@code sha256, size, mtime, path}); new entries are appended, the last line for a path wins, and
+ * the file is rewritten without superseded lines on {@link #close()}.
+ */
+public class ChecksumCache implements Closeable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final Path cacheFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private BufferedWriter appender;
+    private int lines;
+
+    /**
+     * Loads existing entries from {@code cacheFile}, if it exists.
+     *
+     * @param cacheFile location of the cache file.
+     * @throws IOException if the cache file exists but cannot be read.
+     */
+    public ChecksumCache(Path cacheFile) throws IOException {
+        this.cacheFile = cacheFile;
+        if (Files.exists(cacheFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 4);
+                    if (fields.length == 4) {
+                        entries.put(fields[3], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                        lines++;
+                    }
+                }
+            }
+            logger.info(String.format("Loaded %d cached checksums from %s", entries.size(), cacheFile));
+        }
+    }
+
+    /**
+     * Returns the SHA-256 of {@code filePath}, reading the file only when it is not cached or has changed.
+     *
+     * @param filePath path to the file.
+     * @return lowercase hex string of the SHA-256 digest.
+     * @throws NoSuchAlgorithmException if SHA-256 is unavailable.
+     * @throws IOException if the file cannot be read.
+     */
+    public String getFileChecksum(String filePath) throws NoSuchAlgorithmException, IOException {
+        Path path = Paths.get(filePath).toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String key = path.toString();
+
+        Entry cached = entries.get(key);
+        if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+            return cached.checksum;
+        }
+
+        String checksum = ObtainFileIdAndUploadUrl.getFileChecksum(key);
+        Entry entry = new Entry(checksum, size, lastModified);
+        entries.put(key, entry);
+        append(key, entry);
+        return checksum;
+    }
+
+    /**
+     * Rewrites the cache file with only the current entries.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (appender != null) {
+            appender.close();
+            appender = null;
+        }
+        if (lines <= entries.size()) {
+            return;
+        }
+        Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                writer.write(format(e.getKey(), e.getValue()));
+            }
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lines = entries.size();
+    }
+
+    private synchronized void append(String key, Entry entry) throws IOException {
+        if (appender == null) {
+            Path parent = cacheFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            appender = Files.newBufferedWriter(cacheFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        appender.write(format(key, entry));
+        appender.flush();
+        lines++;
+    }
+
+    private static String format(String key, Entry entry) {
+        return entry.checksum + "\t" + entry.size + "\t" + entry.lastModified + "\t" + key + "\n";
+    }
+
+    private static final class Entry {
+        private final String checksum;
+        private final long size;
+        private final long lastModified;
+
+        private Entry(String checksum, long size, long lastModified) {
+            this.checksum = checksum;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
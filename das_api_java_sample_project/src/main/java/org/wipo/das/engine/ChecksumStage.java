@@ -0,0 +1,148 @@
+package org.wipo.das.engine;
+
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.requests.ObtainFileIdAndUploadUrl;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Computes SHA-256 checksums of manifest files in parallel, ahead of the rows that need them.
+ *
+ * <p>Hashing runs on a dedicated {@link ForkJoinPool} of {@code checksumParallelism} workers (default: twice
+ * the number of processors, since the work is largely file I/O). Each distinct file is hashed once while
+ * rows that need it are in flight, keyed by its real path, so rows that reference the same file share the
+ * result even when they spell its path differently. {@link #release(Collection)} forgets the files of a
+ * finished batch, so the stage holds no more than the batches in flight.
+ *
+ * <p>Unless {@code checksumCacheFile} is set to an empty value, checksums go through a persistent
+ * {@link ChecksumCache} (default {@code .das_checksums.tsv}), so unchanged files are not re-read on later runs.
+ */
+public class ChecksumStage implements AutoCloseable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final ForkJoinPool pool;
+    private final ChecksumCache cache;
+    private final Map<String, CompletableFuture<String>> checksums = new ConcurrentHashMap<>();
+
+    /**
+     * @param config loaded {@code config.properties}.
+     */
+    public ChecksumStage(Properties config) {
+        int parallelism = Integer.parseInt(config.getProperty("checksumParallelism",
+                String.valueOf(2 * Runtime.getRuntime().availableProcessors())).trim());
+        this.pool = new ForkJoinPool(parallelism);
+        this.cache = openCache(config.getProperty("checksumCacheFile", ".das_checksums.tsv").trim());
+    }
+
+    /**
+     * Starts hashing every path in {@code filePaths} that is not already known.
+     *
+     * @param filePaths file locations taken from the manifest.
+     * @return pending checksum per distinct path.
+     */
+    public Map<String, CompletableFuture<String>> hashAll(Collection<String> filePaths) {
+        Map<String, CompletableFuture<String>> result = new LinkedHashMap<>();
+        for (String filePath : filePaths) {
+            result.put(filePath, checksumAsync(filePath));
+        }
+        logger.info(String.format("Hashing %d distinct files", result.size()));
+        return result;
+    }
+
+    /**
+     * @param filePath file location.
+     * @return the checksum, computed on the hashing pool if it was not requested before.
+     */
+    public CompletableFuture<String> checksumAsync(String filePath) {
+        return checksums.computeIfAbsent(realPath(filePath), path -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache != null ? cache.getFileChecksum(path) : ObtainFileIdAndUploadUrl.getFileChecksum(path);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, pool));
+    }
+
+    /**
+     * Blocks until the checksum of {@code filePath} is available.
+     *
+     * @param filePath file location.
+     * @return lowercase hex SHA-256.
+     * @throws Exception the failure raised while reading or hashing the file.
+     */
+    public String checksum(String filePath) throws Exception {
+        try {
+            return checksumAsync(filePath).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Forgets the checksums of files no pending row needs. A file requested again afterwards is hashed
+     * again, which the {@link ChecksumCache} reduces to a {@code stat}.
+     *
+     * @param filePaths file locations taken from the manifest.
+     */
+    public void release(Collection<String> filePaths) {
+        for (String filePath : filePaths) {
+            checksums.remove(realPath(filePath));
+        }
+    }
+
+    /**
+     * @return files waiting for a hashing worker.
+     */
+    public int getQueued() {
+        return pool.getQueuedSubmissionCount();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                logger.warn("Failed to compact the checksum cache", e);
+            }
+        }
+    }
+
+    /**
+     * @return the path with symbolic links and relative segments resolved, or as given if it does not exist.
+     */
+    private static String realPath(String filePath) {
+        try {
+            return Paths.get(filePath).toRealPath().toString();
+        } catch (IOException e) {
+            // Reported by the hashing task, which reads the file as given
+            return filePath;
+        }
+    }
+
+    private static ChecksumCache openCache(String cacheFile) {
+        if (cacheFile.isEmpty()) {
+            return null;
+        }
+        try {
+            return new ChecksumCache(Paths.get(cacheFile));
+        } catch (IOException e) {
+            logger.warn("Checksum cache " + cacheFile + " is unreadable, checksums will not be cached", e);
+            return null;
+        }
+    }
+}
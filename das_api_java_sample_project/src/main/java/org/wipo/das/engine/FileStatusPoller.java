@@ -0,0 +1,138 @@
+package org.wipo.das.engine;
+
+import okhttp3.OkHttpClient;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.assertion.AccessTokenProvider;
+import org.wipo.das.metrics.DasMetrics;
+import org.wipo.das.requests.CheckFileStatus;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the processing status of many uploaded files from a single scheduler thread.
+ *
+ * <p>Each watched {@code fileId} has its own next-poll time on a shared delay queue. When it is due, a
+ * single non-blocking {@link CheckFileStatus#checkFileStatusAsync()} is queued on the shared
+ * {@link OkHttpClient}; the response reschedules the file or completes its future. No thread waits
+ * on a file in between, so the cost of polling follows the number of outstanding files rather than
+ * the number of threads.
+ *
+ * <p>Delays start at {@code statusPollInitialDelayMillis} (default 2000) and double after every
+ * inconclusive poll up to {@code statusPollMaxDelayMillis} (default 30000). Each delay is randomized
+ * to between half and all of its value, so files uploaded together do not poll in lockstep. A file
+ * still undetermined after {@code statusPollTimeoutSeconds} (default 3600) fails with an
+ * {@link IOException}.
+ */
+public class FileStatusPoller implements AutoCloseable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final OkHttpClient client;
+    private final String dasEndPoint;
+    private final AccessTokenProvider tokenProvider;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Set<CompletableFuture<String>> outstanding = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param client shared transport (see {@link org.wipo.das.requests.DasHttpClient}).
+     * @param dasEndPoint base DAS requests URL.
+     * @param tokenProvider source of the current access token, read again for every poll without blocking.
+     * @param config loaded {@code config.properties}.
+     */
+    public FileStatusPoller(OkHttpClient client, String dasEndPoint, AccessTokenProvider tokenProvider, Properties config) {
+        this.client = client;
+        this.dasEndPoint = dasEndPoint;
+        this.tokenProvider = tokenProvider;
+        this.initialDelayMillis = Long.parseLong(config.getProperty("statusPollInitialDelayMillis", "2000").trim());
+        this.maxDelayMillis = Long.parseLong(config.getProperty("statusPollMaxDelayMillis", "30000").trim());
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(
+                Long.parseLong(config.getProperty("statusPollTimeoutSeconds", "3600").trim()));
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("das-status-poller"));
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Starts polling the status of {@code fileId}.
+     *
+     * @param fileId identifier returned by {@code /files/url-uploads}.
+     * @return future completed with {@code "ACCEPTED"} or {@code "REJECTED"}.
+     */
+    public CompletableFuture<String> watch(String fileId) {
+        CompletableFuture<String> status = new CompletableFuture<>();
+        outstanding.add(status);
+        status.whenComplete((result, error) -> outstanding.remove(status));
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        schedule(fileId, status, initialDelayMillis, deadline, 0);
+        return status;
+    }
+
+    /**
+     * @return number of files whose status is not determined yet.
+     */
+    public int getOutstanding() {
+        return outstanding.size();
+    }
+
+    /**
+     * Stops polling; files still outstanding are failed.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (CompletableFuture<String> status : outstanding) {
+            status.completeExceptionally(new IOException("Status poller closed before the file status was determined"));
+        }
+    }
+
+    private void schedule(String fileId, CompletableFuture<String> status, long delayMillis, long deadline, int polls) {
+        long jittered = delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1);
+        try {
+            scheduler.schedule(() -> poll(fileId, status, delayMillis, deadline, polls + 1), jittered, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            status.completeExceptionally(new IOException("Status poller is closed, fileId " + fileId + " not determined", e));
+        }
+    }
+
+    /**
+     * @param polls status checks made for {@code fileId}, including this one.
+     */
+    private void poll(String fileId, CompletableFuture<String> status, long delayMillis, long deadline, int polls) {
+        // Never waits on the scheduler thread: a token refresh is chained, not awaited
+        CompletableFuture<String> check = tokenProvider.getTokenAsync().thenCompose(token ->
+                new CheckFileStatus(client, dasEndPoint, token, fileId).checkFileStatusAsync());
+        check.whenComplete((result, error) -> {
+            if (result != null) {
+                DasMetrics.statusPolls(polls, result.toLowerCase(Locale.ROOT));
+                logger.debug(String.format("Status of fileId %s is %s after %d polls", fileId, result, polls));
+                status.complete(result);
+                return;
+            }
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                logger.warn(String.format("Status check of fileId %s failed: %s", fileId, cause.getMessage()));
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                DasMetrics.statusPolls(polls, "timed_out");
+                status.completeExceptionally(new IOException(String.format(
+                        "Status of fileId %s not determined within %d seconds", fileId, timeoutMillis / 1000)));
+                return;
+            }
+            schedule(fileId, status, Math.min(delayMillis * 2, maxDelayMillis), deadline, polls);
+        });
+    }
+}
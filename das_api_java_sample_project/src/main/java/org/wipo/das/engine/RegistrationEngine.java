@@ -0,0 +1,373 @@
+package org.wipo.das.engine;
+
+import okhttp3.OkHttpClient;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.assertion.AccessTokenProvider;
+import org.wipo.das.metrics.DasMetrics;
+import org.wipo.das.requests.GetUpdatedUploadUrl;
+import org.wipo.das.requests.ObtainFileIdAndUploadUrl;
+import org.wipo.das.requests.RegisterFile;
+import org.wipo.das.requests.UploadFileToDas;
+import org.wipo.das.requests.UploadGovernor;
+import org.wipo.das.restapitest.ConfigManager;
+import org.wipo.das.state.ManifestRow;
+import org.wipo.das.state.RegistrationRow;
+import org.wipo.das.state.StateStore;
+import org.wipo.das.trace.RowTrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the registration flow for every pending row of the registration manifest with bounded parallelism.
+ *
+ * <p>Pending rows come from the {@link StateStore} in batches. The checksums of a batch are computed up
+ * front by a {@link ChecksumStage}. Each row then goes
+ * through {@code fileId}/upload URL, upload, status polling and registration.
+ * Uploads and registrations run on {@code registrationConcurrency} workers (default 4). While DAS
+ * processes an upload, the row is handed to a {@link FileStatusPoller} and its worker moves on to the
+ * next upload, so slow status checks do not hold back the rest of the batch. All uploads share one
+ * {@link UploadGovernor}, which caps the bytes in flight and the combined send rate. Row results are persisted through
+ * {@link ConfigManager#updateCsvRow(int, int[], String[])}, which serializes state updates.
+ *
+ * <p>With {@code dedupReuseFileId=true} (default false), rows whose files have the same SHA-256 share one
+ * upload: the first such row obtains a {@code fileId}, uploads and waits for its status, and the other rows
+ * register that same {@code fileId}. Each row still gets its own registration and {@code ack_id}. Only
+ * enable this if DAS accepts several registrations of one {@code fileId}. An upload is kept for reuse
+ * until the batch after the last one that used it has finished, so duplicates further apart in the
+ * manifest upload their file again.
+ *
+ * <p>A failing row is logged and left unregistered so the next run picks it up again; it no longer
+ * stops the whole batch.
+ */
+public class RegistrationEngine {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final ConfigManager configManager;
+    private final OkHttpClient client;
+    private final AccessTokenProvider tokenProvider;
+    private final String dasEndPoint;
+    private final int concurrency;
+    private final int batchSize;
+    private final RegistrationRow.Columns columns;
+    private final ChecksumStage checksumStage;
+    private final FileStatusPoller statusPoller;
+    private final UploadGovernor uploadGovernor;
+    private final boolean reuseFileIds;
+    private final Map<String, CompletableFuture<UploadedFile>> sharedUploads = new ConcurrentHashMap<>();
+
+    private final AtomicInteger registered = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * @param configManager configuration and the loaded registration CSV.
+     * @param client shared transport (see {@link org.wipo.das.requests.DasHttpClient}).
+     * @param tokenProvider source of the current access token.
+     */
+    public RegistrationEngine(ConfigManager configManager, OkHttpClient client, AccessTokenProvider tokenProvider) {
+        this.configManager = configManager;
+        this.client = client;
+        this.tokenProvider = tokenProvider;
+        this.dasEndPoint = configManager.getConfig().getProperty("url");
+        this.concurrency = Integer.parseInt(configManager.getConfig().getProperty("registrationConcurrency", "4").trim());
+        this.batchSize = Integer.parseInt(configManager.getConfig().getProperty("stateBatchSize", "500").trim());
+        this.columns = new RegistrationRow.Columns(configManager.getConfig());
+        this.checksumStage = new ChecksumStage(configManager.getConfig());
+        this.statusPoller = new FileStatusPoller(client, dasEndPoint, tokenProvider, configManager.getConfig());
+        this.uploadGovernor = UploadGovernor.fromConfig(configManager.getConfig());
+        this.reuseFileIds = Boolean.parseBoolean(configManager.getConfig().getProperty("dedupReuseFileId", "false").trim());
+    }
+
+    /**
+     * Processes all rows not yet registered and waits until they are done.
+     *
+     * <p>Pending rows are fetched from the {@link StateStore} in batches of {@code stateBatchSize}
+     * (default 500). The next batch is fetched once the one before the current batch has finished, so at
+     * most two batches are in flight at a time.
+     *
+     * @throws IOException if the state store cannot be read.
+     * @throws InterruptedException if interrupted while waiting for the workers.
+     */
+    public void run() throws IOException, InterruptedException {
+        StateStore stateStore = configManager.getStateStore();
+        ThreadPoolExecutor workers = (ThreadPoolExecutor) Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("das-registration"));
+        DasMetrics.queueDepth("checksum", checksumStage::getQueued);
+        DasMetrics.queueDepth("registration_workers", () -> workers.getQueue().size());
+        DasMetrics.queueDepth("status_poller", statusPoller::getOutstanding);
+        DasMetrics.queueDepth("upload_governor", uploadGovernor::getQueueLength);
+        logger.info(String.format("Registering with %d concurrent rows", concurrency));
+
+        int submitted = 0;
+        int afterRow = 0;
+        CompletableFuture<Void> previousBatch = CompletableFuture.completedFuture(null);
+        Set<String> previousFiles = new HashSet<>();
+        // Checksums whose uploads the batch in flight before the current one used, and the batch before it
+        Set<String> previousUploads = new HashSet<>();
+        Set<String> finishedUploads = new HashSet<>();
+        List<ManifestRow> batch;
+        while (!(batch = stateStore.nextRows(StateStore.PENDING, afterRow, batchSize)).isEmpty()) {
+            List<RegistrationRow> pendingRows = new ArrayList<>(batch.size());
+            Set<String> pendingFiles = new LinkedHashSet<>();
+            for (ManifestRow pending : batch) {
+                RegistrationRow line = new RegistrationRow(pending, columns);
+                pendingRows.add(line);
+                pendingFiles.add(line.getFileLocation());
+            }
+            // Hash the batch up front, in parallel with the uploads of its first rows
+            checksumStage.hashAll(pendingFiles);
+
+            Set<String> uploads = ConcurrentHashMap.newKeySet();
+            List<CompletableFuture<Void>> rows = new ArrayList<>();
+            for (RegistrationRow line : pendingRows) {
+                rows.add(processRow(line, workers, uploads));
+            }
+            submitted += rows.size();
+            afterRow = batch.get(batch.size() - 1).getIndex();
+
+            previousBatch.join();
+            // Every row of the current batch already holds its checksum, so only its files are still needed
+            previousFiles.removeAll(pendingFiles);
+            checksumStage.release(previousFiles);
+            previousFiles = pendingFiles;
+            // The current batch may still look up the uploads of the one that just finished, not older ones
+            finishedUploads.removeAll(previousUploads);
+            sharedUploads.keySet().removeAll(finishedUploads);
+            finishedUploads = previousUploads;
+            previousUploads = uploads;
+            previousBatch = CompletableFuture.allOf(rows.toArray(new CompletableFuture<?>[0]));
+        }
+        // Row failures were counted and logged by processRow, so the batches never complete exceptionally
+        previousBatch.join();
+
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        statusPoller.close();
+        checksumStage.close();
+        logger.info(String.format("Registration finished: %d submitted, %d registered, %d rejected, %d failed, %d uploads reused",
+                submitted, registered.get(), rejected.get(), failed.get(), reused.get()));
+    }
+
+    /**
+     * Chains the stages of one row: checksum on the {@link ChecksumStage}, upload on a worker, status
+     * polling on the {@link FileStatusPoller} (no worker held), then registration back on a worker.
+     * Each stage is traced in the row's {@link RowTrace}.
+     */
+    @SuppressWarnings("try")
+    private CompletableFuture<Void> processRow(RegistrationRow line, ExecutorService workers, Set<String> batchUploads) {
+        String fileReference = line.getFileReference();
+        RowTrace trace = RowTrace.start("registration", line.getIndex(), line.getPriorityNumber() + " " + line.getPriorityDate());
+        RowTrace.Stage hashing = trace.stage("checksum");
+        return checksumStage.checksumAsync(line.getFileLocation())
+                .whenComplete((checksum, error) -> hashing.end(error == null ? "ok" : "failed"))
+                .thenCompose(checksum -> reuseFileIds ? sharedUpload(line, checksum, workers, trace, batchUploads) : upload(line, checksum, workers, trace))
+                .thenApplyAsync(file -> call(() -> {
+                    try (RowTrace.Scope scope = trace.enter()) {
+                        return registerRow(line, file.fileId(), file.status(), trace);
+                    }
+                }), workers)
+                .handle((accepted, error) -> {
+                    String outcome = error != null ? "failed" : accepted ? "registered" : "rejected";
+                    if (error != null) {
+                        failed.incrementAndGet();
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        logger.error(String.format("Failed to register '%s', it will be retried on the next run", fileReference), cause);
+                    } else if (accepted) {
+                        registered.incrementAndGet();
+                    } else {
+                        rejected.incrementAndGet();
+                    }
+                    DasMetrics.row("registration", outcome);
+                    trace.end(outcome);
+                    return null;
+                });
+    }
+
+    /**
+     * Uploads the file of a row and waits for DAS to decide on it.
+     */
+    @SuppressWarnings("try")
+    private CompletableFuture<UploadedFile> upload(RegistrationRow line, String checksum, ExecutorService workers, RowTrace trace) {
+        return CompletableFuture.supplyAsync(() -> call(() -> {
+                    try (RowTrace.Scope scope = trace.enter()) {
+                        return uploadRow(line, checksum, trace);
+                    }
+                }), workers)
+                .thenCompose(fileId -> {
+                    RowTrace.Stage waiting = trace.stage("status");
+                    return statusPoller.watch(fileId)
+                            .whenComplete((status, error) -> waiting.end(error == null ? status.toLowerCase(Locale.ROOT) : "failed"))
+                            .thenApply(status -> new UploadedFile(fileId, status));
+                });
+    }
+
+    /**
+     * Returns the upload of the first row with this checksum, starting it if this row is the first.
+     *
+     * @param batchUploads checksums used by the batch of this row, which keep their uploads for reuse.
+     */
+    private CompletableFuture<UploadedFile> sharedUpload(RegistrationRow line, String checksum, ExecutorService workers,
+                                                         RowTrace trace, Set<String> batchUploads) {
+        batchUploads.add(checksum);
+        CompletableFuture<UploadedFile> own = new CompletableFuture<>();
+        CompletableFuture<UploadedFile> earlier = sharedUploads.putIfAbsent(checksum, own);
+        if (earlier != null) {
+            reused.incrementAndGet();
+            logger.info(String.format("File '%s' has the same content as an earlier row, reusing its upload",
+                    line.getFileReference()));
+            RowTrace.Stage waiting = trace.stage("shared_upload");
+            return earlier.whenComplete((file, error) -> {
+                if (file != null) {
+                    trace.fileId(file.fileId());
+                }
+                waiting.end(error == null ? "ok" : "failed");
+            });
+        }
+        upload(line, checksum, workers, trace).whenComplete((file, error) -> {
+            if (error != null) {
+                own.completeExceptionally(error);
+            } else {
+                own.complete(file);
+            }
+        });
+        return own;
+    }
+
+    /**
+     * Uploads the file of one row.
+     *
+     * @param sha256Checksum SHA-256 of the file.
+     * @return the {@code fileId} DAS assigned to the upload.
+     */
+    private String uploadRow(RegistrationRow line, String sha256Checksum, RowTrace trace) throws Exception {
+        String fileReference = line.getFileReference();
+        String fileLocation = line.getFileLocation();
+
+        logger.info("Processing fileReference: " + fileReference);
+        logger.info("SHA-256 checksum: " + sha256Checksum);
+
+        try (RowTrace.Stage uploading = trace.stage("upload")) {
+            // Retrieve the fileId and uploadUrl
+            ObtainFileIdAndUploadUrl obtainFileIdAndUploadUrl = new ObtainFileIdAndUploadUrl(client, dasEndPoint,
+                    tokenProvider.getToken(), fileReference, "pdf", sha256Checksum);
+            String[] fileIdAndUrl = obtainFileIdAndUploadUrl.getFileIdAndUploadUrl();
+            if (fileIdAndUrl == null) {
+                throw new IOException("Failed to obtain file ID and upload URL.");
+            }
+            String fileId = fileIdAndUrl[0];
+            trace.fileId(fileId);
+            logger.info("Got fileId: " + fileId);
+
+            // Upload the file
+            uploadFile(fileIdAndUrl[1], fileLocation, fileId, fileReference);
+            uploading.bytes(new File(fileLocation).length()).outcome("ok");
+            logger.info("File uploaded successfully!, continue for registration");
+            return fileId;
+        }
+    }
+
+    /**
+     * Registers an uploaded file once DAS has determined its status.
+     *
+     * @return {@code true} if registered, {@code false} if DAS rejected the file.
+     */
+    private boolean registerRow(RegistrationRow line, String fileId, String status, RowTrace trace) throws Exception {
+        String fileReference = line.getFileReference();
+        String applicationNumber = line.getApplicationNumber();
+        String applicationDate = line.getApplicationDate();
+        String priorityNumber = line.getPriorityNumber();
+        String priorityDate = line.getPriorityDate();
+        String documentCategory = line.getDocumentCategory();
+        String applicationCategory = line.getApplicationCategory();
+        String dasCode = line.getDasCode();
+
+        logger.info(String.format("File upload status for '%s': %s", fileReference, status));
+        if (!status.equals("ACCEPTED")) {
+            logger.error(String.format("File '%s' was rejected!", fileReference));
+            return false;
+        }
+
+        String acknowledgeId;
+        try (RowTrace.Stage registering = trace.stage("register")) {
+            RegisterFile registerFile = new RegisterFile(client, dasEndPoint, tokenProvider.getToken(), documentCategory,
+                    priorityNumber, priorityDate, dasCode,
+                    applicationCategory, applicationNumber, applicationDate, fileId);
+            acknowledgeId = registerFile.registerFile();
+            if (acknowledgeId == null) {
+                throw new IOException("Failed to register fileId " + fileId);
+            }
+            trace.ackId(acknowledgeId);
+            registering.outcome("ok");
+        }
+        logger.info(String.format("File '%s' registered with AckId: %s", fileReference, acknowledgeId));
+
+        configManager.updateCsvRow(line.getIndex(), new int[]{columns.getFileId(), columns.getRegistered(), columns.getAckId()},
+                new String[]{fileId, "true", acknowledgeId});
+        return true;
+    }
+
+    /**
+     * Uploads a file using a pre-signed URL, requesting a fresh URL once if the first attempt fails.
+     */
+    private void uploadFile(String uploadUrl, String fileLocation, String fileId, String fileReference) throws IOException {
+        Integer uploadResponse = new UploadFileToDas(client, uploadGovernor, uploadUrl, fileLocation,
+                progressLogger(fileReference)).uploadMyFile();
+        if (uploadResponse.equals(200)) {
+            return;
+        }
+        logger.warn(String.format("Upload of fileId %s failed with %d, retrying with an updated url", fileId, uploadResponse));
+        DasMetrics.retry("files/url-uploads", "upload_" + uploadResponse);
+        GetUpdatedUploadUrl getUpdatedUploadUrl = new GetUpdatedUploadUrl(client, dasEndPoint + "/", tokenProvider.getToken());
+        String updatedUrl = getUpdatedUploadUrl.getUpdatedUrl(fileId);
+        Integer secondResponse = new UploadFileToDas(client, uploadGovernor, updatedUrl, fileLocation,
+                progressLogger(fileReference)).uploadMyFile();
+        if (!secondResponse.equals(200)) {
+            throw new IOException("Failed to upload file. Response code: " + secondResponse);
+        }
+    }
+
+    /**
+     * @return a listener that logs each quarter of an upload at debug level.
+     */
+    private static UploadFileToDas.ProgressListener progressLogger(String fileReference) {
+        AtomicInteger loggedQuarter = new AtomicInteger();
+        return (bytesSent, totalBytes) -> {
+            int quarter = totalBytes == 0 ? 4 : (int) (bytesSent * 4 / totalBytes);
+            if (quarter > loggedQuarter.getAndSet(quarter)) {
+                logger.debug(String.format("Uploading '%s': %d of %d bytes", fileReference, bytesSent, totalBytes));
+            }
+        };
+    }
+
+    /**
+     * A {@code fileId} whose upload DAS has accepted or rejected.
+     */
+    private record UploadedFile(String fileId, String status) {
+    }
+
+    private static <T> T call(Callable<T> stage) {
+        try {
+            return stage.call();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.wipo.das.engine;
+
+import okhttp3.OkHttpClient;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.assertion.AccessTokenProvider;
+import org.wipo.das.metrics.DasMetrics;
+import org.wipo.das.requests.DownloadFileFromDas;
+import org.wipo.das.requests.GetFileFromDas;
+import org.wipo.das.requests.GetOsfAckId;
+import org.wipo.das.restapitest.ConfigManager;
+import org.wipo.das.state.ManifestRow;
+import org.wipo.das.state.RetrievalRow;
+import org.wipo.das.state.StateStore;
+import org.wipo.das.trace.RowTrace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the retrieval flow for every pending row of the retrieval manifest as a two-stage pipeline.
+ *
+ * <p>The first stage registers a retrieval ({@code POST /retrievals}) for every pending row that has no
+ * {@code osf_ack_id} yet, and stores the ack id. Rows that already have one skip it. The second stage
+ * asks for the download URL of each row as soon as it has an ack id and downloads the document.
+ *
+ * <p>A document DAS does not have yet is not given up until the next run. Its row goes on a delay queue
+ * and the URL is asked for again after {@code retrievalRetryInitialDelayMillis} (default 5000). The delay
+ * doubles after every further attempt up to {@code retrievalRetryMaxDelayMillis} (default 300000). It is
+ * randomized to between half and all of its value, like the status polls of uploads. A row counts as not
+ * ready when the URL call fails with an I/O error or answers with a {@code 5xx}, with a status listed in
+ * {@code retrievalNotReadyStatuses} (default {@code 404,409,425}), or with a success but no
+ * {@code fileDownloadUrl}. Other answers fail the row. A row still not ready after
+ * {@code retrievalRetryTimeoutSeconds} (default 3600) keeps its ack id for the next run.
+ *
+ * <p>Both stages run on the {@link RowRunner} of the flow, so {@code executionMode} decides whether rows
+ * run one after the other or on virtual threads. The calling thread only moves due rows from the delay
+ * queue to the runner; no thread waits on a row that is not ready. At most {@code retrievalMaxPendingRows}
+ * (default 2000) rows are between the stages at a time: once that many are unfinished, the first stage
+ * hands due rows to the runner until one finishes. The rows held in memory therefore do not grow with
+ * the manifest.
+ */
+public class RetrievalEngine {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final ConfigManager configManager;
+    private final OkHttpClient client;
+    private final AccessTokenProvider tokenProvider;
+    private final String dasEndPoint;
+    private final int batchSize;
+    private final RetrievalRow.Columns columns;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final long timeoutMillis;
+    private final int maxPendingRows;
+    private final Set<Integer> notReadyStatuses = new HashSet<>();
+    private final String localFolder;
+    private final int downloadSegments;
+    private final long downloadSegmentMinBytes;
+    private final DelayQueue<PendingRow> retryQueue = new DelayQueue<>();
+    // Rows not finished yet, plus one while rows are still being submitted
+    private final AtomicInteger outstanding = new AtomicInteger(1);
+    // Queued once every row has finished
+    private final PendingRow done = new PendingRow(null, 0);
+
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger notReady = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+
+    /**
+     * @param configManager configuration and the loaded retrieval CSV.
+     * @param client shared transport (see {@link org.wipo.das.requests.DasHttpClient}).
+     * @param tokenProvider source of the current access token.
+     */
+    public RetrievalEngine(ConfigManager configManager, OkHttpClient client, AccessTokenProvider tokenProvider) {
+        Properties config = configManager.getConfig();
+        this.configManager = configManager;
+        this.client = client;
+        this.tokenProvider = tokenProvider;
+        this.dasEndPoint = config.getProperty("url");
+        this.batchSize = Integer.parseInt(config.getProperty("stateBatchSize", "500").trim());
+        this.columns = new RetrievalRow.Columns(config);
+        this.initialDelayMillis = Long.parseLong(config.getProperty("retrievalRetryInitialDelayMillis", "5000").trim());
+        this.maxDelayMillis = Long.parseLong(config.getProperty("retrievalRetryMaxDelayMillis", "300000").trim());
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(
+                Long.parseLong(config.getProperty("retrievalRetryTimeoutSeconds", "3600").trim()));
+        this.maxPendingRows = Integer.parseInt(config.getProperty("retrievalMaxPendingRows", "2000").trim());
+        for (String status : config.getProperty("retrievalNotReadyStatuses", "404,409,425").split(",")) {
+            if (!status.isBlank()) {
+                notReadyStatuses.add(Integer.parseInt(status.trim()));
+            }
+        }
+        this.localFolder = config.getProperty("localFolder");
+        this.downloadSegments = Integer.parseInt(config.getProperty("downloadSegments", "1").trim());
+        this.downloadSegmentMinBytes = Long.parseLong(config.getProperty("downloadSegmentMinBytes", "16777216").trim());
+    }
+
+    /**
+     * Processes all rows not yet downloaded and waits until each is downloaded, failed or timed out.
+     *
+     * @throws IOException if the state store cannot be read.
+     * @throws InterruptedException if interrupted while waiting for rows to become ready.
+     */
+    public void run() throws IOException, InterruptedException {
+        StateStore stateStore = configManager.getStateStore();
+        DasMetrics.queueDepth("retrieval_retry", retryQueue::size);
+
+        int submitted = 0;
+        try (RowRunner rowRunner = RowRunner.fromConfig(configManager.getConfig())) {
+            // Stage one: register every pending retrieval, in batches from the state store
+            int afterRow = 0;
+            List<ManifestRow> batch;
+            while (!(batch = stateStore.nextRows(StateStore.PENDING, afterRow, batchSize)).isEmpty()) {
+                for (ManifestRow pending : batch) {
+                    runDueRows(rowRunner);
+                    PendingRow row = new PendingRow(new RetrievalRow(pending, columns), System.currentTimeMillis() + timeoutMillis);
+                    outstanding.incrementAndGet();
+                    rowRunner.submit(() -> submitRow(row));
+                }
+                submitted += batch.size();
+                afterRow = batch.get(batch.size() - 1).getIndex();
+            }
+            finish(null, null);
+
+            // Stage two: hand rows to the runner as they come due, until every row is finished
+            PendingRow due;
+            while ((due = retryQueue.take()) != done) {
+                PendingRow row = due;
+                rowRunner.submit(() -> locateRow(row));
+            }
+        }
+        logger.info(String.format("Retrieval finished: %d submitted, %d downloaded, %d not ready yet, %d failed, %d retries",
+                submitted, downloaded.get(), notReady.get(), failed.get(), retries.get()));
+    }
+
+    /**
+     * Hands due rows to the runner until fewer than {@code maxPendingRows} rows are unfinished.
+     */
+    private void runDueRows(RowRunner rowRunner) throws InterruptedException {
+        // outstanding counts one more while rows are being submitted; rows may also finish without coming due
+        while (outstanding.get() > maxPendingRows) {
+            PendingRow due = retryQueue.poll(100, TimeUnit.MILLISECONDS);
+            if (due != null) {
+                rowRunner.submit(() -> locateRow(due));
+            }
+        }
+    }
+
+    /**
+     * Registers the retrieval of a row if it has no ack id yet, then queues the row for its download URL.
+     * An unexpected exception fails the row, so {@link #run()} still ends.
+     */
+    private void submitRow(PendingRow row) {
+        try {
+            register(row);
+        } catch (RuntimeException e) {
+            logger.error(String.format("Failed to register the retrieval of '%s'", row.line.getPriorityNumber()), e);
+            finish(row, "failed");
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void register(PendingRow row) {
+        RetrievalRow line = row.line;
+        row.trace.ackId(row.ackId);
+        if (row.ackId != null && !row.ackId.isEmpty()) {
+            retryQueue.offer(row.dueIn(0));
+            return;
+        }
+        try (RowTrace.Scope scope = row.trace.enter();
+             RowTrace.Stage requesting = row.trace.stage("ack")) {
+            GetOsfAckId getOsfAckId = new GetOsfAckId(client, dasEndPoint, tokenProvider.getToken(),
+                    line.getDocumentCategory(), line.getPriorityNumber(), line.getPriorityDate(), line.getDasCode());
+            row.ackId = getOsfAckId.getAck();
+            if (row.ackId == null || row.ackId.isEmpty()) {
+                requesting.outcome("failed");
+                logger.error(String.format("Failed to register the retrieval of '%s'", line.getPriorityNumber()));
+                finish(row, "failed");
+                return;
+            }
+            requesting.outcome("ok");
+        } catch (IOException e) {
+            logger.error(String.format("Failed to register the retrieval of '%s', it will be retried on the next run",
+                    line.getPriorityNumber()), e);
+            finish(row, "failed");
+            return;
+        }
+        logger.info(String.format("Retrieval of '%s' registered with AckId: %s", line.getPriorityNumber(), row.ackId));
+        row.trace.ackId(row.ackId);
+        configManager.updateCsvData(line.getIndex(), columns.getOsfAckId(), row.ackId);
+        retryQueue.offer(row.dueIn(0));
+    }
+
+    /**
+     * Asks for the download URL of a row and downloads the document, or puts the row back on the delay queue
+     * if DAS does not have the document yet. An unexpected exception fails the row, so {@link #run()} still ends.
+     */
+    private void locateRow(PendingRow row) {
+        try {
+            locate(row);
+        } catch (RuntimeException e) {
+            logger.error(String.format("Failed to download '%s'", row.line.getPriorityNumber()), e);
+            finish(row, "failed");
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void locate(PendingRow row) {
+        RetrievalRow line = row.line;
+        GetFileFromDas.Answer answer;
+        try (RowTrace.Scope scope = row.trace.enter();
+             RowTrace.Stage locating = row.trace.stage("download_url")) {
+            try {
+                answer = new GetFileFromDas(client, dasEndPoint, tokenProvider.getToken(), line.getDocumentCategory(),
+                        line.getPriorityNumber(), line.getPriorityDate(), row.ackId).requestUrl();
+            } catch (IOException e) {
+                locating.outcome("not_ready");
+                retryLater(row, "io_error", e.getMessage());
+                return;
+            }
+            if (!answer.isReady()) {
+                boolean notReadyYet = answer.status() < 300 || answer.status() >= 500 || notReadyStatuses.contains(answer.status());
+                locating.outcome(notReadyYet ? "not_ready" : "failed");
+                if (notReadyYet) {
+                    retryLater(row, String.valueOf(answer.status()), answer.error());
+                } else {
+                    logger.error(String.format("Failed to obtain the download url of '%s'. Response status: %d, Response body: %s",
+                            line.getPriorityNumber(), answer.status(), answer.error()));
+                    finish(row, "failed");
+                }
+                return;
+            }
+            locating.outcome("ok");
+        }
+
+        try (RowTrace.Scope scope = row.trace.enter();
+             RowTrace.Stage downloading = row.trace.stage("download")) {
+            Path localFile = Paths.get(localFolder,
+                    (line.getPriorityNumber() + "_" + line.getPriorityDate()).replace("/", "_") + ".pdf");
+            // Pooled client, large direct buffer, written to a .part file and renamed once complete;
+            // a .part left by an interrupted run is resumed with a Range request
+            downloading.bytes(new DownloadFileFromDas(client, answer.fileDownloadUrl(), localFile,
+                    downloadSegments, downloadSegmentMinBytes).download()).outcome("ok");
+        } catch (IOException e) {
+            logger.error(String.format("Failed to download '%s', it will be retried on the next run", line.getPriorityNumber()), e);
+            finish(row, "failed");
+            return;
+        }
+        configManager.updateCsvData(line.getIndex(), columns.getDownloaded(), "true");
+        finish(row, "downloaded");
+    }
+
+    /**
+     * Puts a row that is not ready back on the delay queue, or finishes it once its time is up.
+     *
+     * @param reason status of the answer, or {@code io_error}.
+     */
+    private void retryLater(PendingRow row, String reason, String detail) {
+        long delayMillis = row.attempts == 0 ? initialDelayMillis : Math.min(row.delayMillis * 2, maxDelayMillis);
+        if (System.currentTimeMillis() + delayMillis / 2 > row.deadline) {
+            logger.warn(String.format("Document '%s' is still not available after %d attempts, it will be retried on the next run",
+                    row.line.getPriorityNumber(), row.attempts + 1));
+            finish(row, "not_ready");
+            return;
+        }
+        row.attempts++;
+        row.delayMillis = delayMillis;
+        retries.incrementAndGet();
+        DasMetrics.retry("files/url-downloads", "not_ready_" + reason);
+        logger.debug(String.format("Document '%s' not available yet (%s: %s), asking again in about %d ms",
+                row.line.getPriorityNumber(), reason, detail, delayMillis));
+        long jittered = delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1);
+        retryQueue.offer(row.dueIn(jittered));
+    }
+
+    /**
+     * Ends a row, or with {@code row == null} the submission of rows. The last one to end releases the
+     * caller of {@link #run()}.
+     */
+    private void finish(PendingRow row, String outcome) {
+        if (row != null) {
+            switch (outcome) {
+                case "downloaded" -> downloaded.incrementAndGet();
+                case "not_ready" -> notReady.incrementAndGet();
+                default -> failed.incrementAndGet();
+            }
+            DasMetrics.row("retrieval", outcome);
+            row.trace.end(outcome);
+        }
+        if (outstanding.decrementAndGet() == 0) {
+            retryQueue.offer(done.dueIn(0));
+        }
+    }
+
+    /**
+     * A row on its way through the pipeline; on the delay queue, ordered by the time it is due.
+     */
+    private static final class PendingRow implements Delayed {
+
+        final RetrievalRow line;
+        final RowTrace trace;
+        final long deadline;
+        volatile String ackId;
+        int attempts;
+        long delayMillis;
+        private long dueNanos;
+
+        /**
+         * @param deadline time, in epoch milliseconds, after which the row is not asked for again in this run.
+         */
+        PendingRow(RetrievalRow line, long deadline) {
+            this.line = line;
+            this.trace = line == null ? null
+                    : RowTrace.start("retrieval", line.getIndex(), line.getPriorityNumber() + " " + line.getPriorityDate());
+            this.ackId = line == null ? null : line.getOsfAckId();
+            this.deadline = deadline;
+        }
+
+        PendingRow dueIn(long delayMillis) {
+            dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            return this;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((PendingRow) other).dueNanos);
+        }
+    }
+}
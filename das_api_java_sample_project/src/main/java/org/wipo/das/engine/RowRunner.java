@@ -0,0 +1,102 @@
+package org.wipo.das.engine;
+
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.metrics.DasMetrics;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs one task per manifest row, either on the calling thread or on its own virtual thread.
+ *
+ * <p>Selected with {@code executionMode} in {@code config.properties}:
+ * <ul>
+ *   <li>{@code sequential} (default) – rows run one after the other on the caller, as before</li>
+ *   <li>{@code virtual} – every row gets a virtual thread; a semaphore of {@code maxInFlightRequests}
+ *       permits (default 64), taken by the submitting thread, bounds how many rows run at the same time</li>
+ * </ul>
+ * Row tasks keep the plain blocking style of the request classes; a blocked virtual thread does not
+ * hold a platform thread, so thousands of mostly-waiting rows stay cheap.
+ */
+public class RowRunner implements AutoCloseable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+
+    private RowRunner(ExecutorService executor, Semaphore inFlight) {
+        this.executor = executor;
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * @param config loaded {@code config.properties}.
+     * @return a runner for the configured execution mode.
+     */
+    public static RowRunner fromConfig(Properties config) {
+        String mode = config.getProperty("executionMode", "sequential").trim();
+        if (mode.equalsIgnoreCase("virtual")) {
+            int maxInFlight = Integer.parseInt(config.getProperty("maxInFlightRequests", "64").trim());
+            logger.info(String.format("Running rows on virtual threads, at most %d in flight", maxInFlight));
+            ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("das-row-", 0).factory());
+            Semaphore inFlight = new Semaphore(maxInFlight);
+            DasMetrics.queueDepth("rows", inFlight::getQueueLength);
+            return new RowRunner(executor, inFlight);
+        }
+        return new RowRunner(null, null);
+    }
+
+    /**
+     * Runs {@code rowTask} now (sequential mode) or on a new virtual thread. In virtual mode the caller blocks
+     * until a permit is free, so a manifest reader is held back instead of starting a thread for every row.
+     *
+     * @param rowTask work for a single row; exceptions are logged and do not affect other rows.
+     */
+    public void submit(Runnable rowTask) {
+        if (executor == null) {
+            runLogged(rowTask);
+            return;
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for a row slot, row not started");
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    runLogged(rowTask);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for all submitted rows to finish.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    private static void runLogged(Runnable rowTask) {
+        try {
+            rowTask.run();
+        } catch (RuntimeException e) {
+            logger.error("Row failed", e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.wipo.das.metrics;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics the client records in {@link MetricsRegistry#getShared()}, and the end-of-run summary.
+ *
+ * <ul>
+ *   <li>{@value #HTTP_DURATION}{endpoint, method, status} – from sending a call until its response body
+ *       is closed; {@code status} is {@code io_error} for calls that failed without a response</li>
+ *   <li>{@value #HTTP_SENT}{endpoint} and {@value #HTTP_RECEIVED}{endpoint} – request and response body bytes</li>
+ *   <li>{@value #HTTP_RETRIES}{endpoint, reason} – calls repeated after a 429 or 503, a 401 answered with a
+ *       new token, or a failed upload retried with a new upload URL</li>
+ *   <li>{@value #HTTP_IN_FLIGHT}{endpoint} and {@value #CONCURRENCY_LIMIT}{endpoint} – calls in flight and
+ *       the adaptive limit per endpoint</li>
+ *   <li>{@value #STATUS_POLLS}{outcome} – status polls each fileId needed before it was decided</li>
+ *   <li>{@value #ROWS}{flow, outcome} – rows finished per flow</li>
+ *   <li>{@value #QUEUE_DEPTH}{stage} – work waiting in each pipeline stage</li>
+ * </ul>
+ * Endpoints are named as by the per-endpoint concurrency limits, e.g. {@code registrations} or
+ * {@code files/url-uploads}; storage calls are named after their host.
+ */
+public final class DasMetrics {
+
+    public static final String HTTP_DURATION = "das_http_request_duration_seconds";
+    public static final String HTTP_SENT = "das_http_sent_bytes_total";
+    public static final String HTTP_RECEIVED = "das_http_received_bytes_total";
+    public static final String HTTP_RETRIES = "das_http_retries_total";
+    public static final String HTTP_IN_FLIGHT = "das_http_in_flight";
+    public static final String CONCURRENCY_LIMIT = "das_concurrency_limit";
+    public static final String STATUS_POLLS = "das_status_polls_per_file";
+    public static final String ROWS = "das_rows_total";
+    public static final String QUEUE_DEPTH = "das_queue_depth";
+
+    private static final MetricsRegistry registry = MetricsRegistry.getShared();
+
+    private DasMetrics() {
+    }
+
+    /**
+     * @param status HTTP status code, or {@code io_error}.
+     */
+    public static void httpCall(String endpoint, String method, String status, long elapsedNanos) {
+        registry.distribution(HTTP_DURATION, "Duration of DAS client calls", 1e-6,
+                "endpoint", endpoint, "method", method, "status", status).record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    /**
+     * @return the counter of request body bytes sent to {@code endpoint}.
+     */
+    public static LongAdder sentBytes(String endpoint) {
+        return registry.counter(HTTP_SENT, "Request body bytes sent", "endpoint", endpoint);
+    }
+
+    /**
+     * @return the counter of response body bytes received from {@code endpoint}.
+     */
+    public static LongAdder receivedBytes(String endpoint) {
+        return registry.counter(HTTP_RECEIVED, "Response body bytes received", "endpoint", endpoint);
+    }
+
+    /**
+     * @param reason the status that caused the retry, e.g. {@code 429}.
+     */
+    public static void retry(String endpoint, String reason) {
+        registry.counter(HTTP_RETRIES, "Calls repeated by the client", "endpoint", endpoint, "reason", reason).increment();
+    }
+
+    /**
+     * Publishes the adaptive limit and the calls in flight of {@code endpoint}.
+     */
+    public static void concurrency(String endpoint, LongSupplier limit, LongSupplier inFlight) {
+        registry.gauge(CONCURRENCY_LIMIT, "Adaptive concurrency limit per endpoint", limit, "endpoint", endpoint);
+        registry.gauge(HTTP_IN_FLIGHT, "Calls in flight per endpoint", inFlight, "endpoint", endpoint);
+    }
+
+    /**
+     * @param outcome e.g. {@code accepted}, {@code rejected} or {@code failed}.
+     */
+    public static void statusPolls(int polls, String outcome) {
+        registry.distribution(STATUS_POLLS, "Status polls needed per fileId", 1, "outcome", outcome).record(polls);
+    }
+
+    public static void row(String flow, String outcome) {
+        registry.counter(ROWS, "Rows finished", "flow", flow, "outcome", outcome).increment();
+    }
+
+    /**
+     * @return rows of {@code flow} finished so far, by outcome.
+     */
+    public static Map<String, Long> rows(String flow) {
+        Map<String, Long> rows = new TreeMap<>();
+        registry.counters(ROWS).forEach((labels, count) -> {
+            if (labels.get(0).equals(flow)) {
+                rows.put(labels.get(1), count.sum());
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * Publishes the amount of work waiting in {@code stage}, replacing an earlier source of the same stage.
+     */
+    public static void queueDepth(String stage, LongSupplier depth) {
+        registry.gauge(QUEUE_DEPTH, "Work waiting per pipeline stage", depth, "stage", stage);
+    }
+
+    /**
+     * @return a multi-line, human-readable summary of the metrics recorded during a run of {@code elapsedNanos}.
+     */
+    public static String summary(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "Metrics after %.1f s", seconds));
+
+        for (Map.Entry<List<String>, LongAdder> rows : registry.counters(ROWS).entrySet()) {
+            long count = rows.getValue().sum();
+            if (count > 0) {
+                out.append(String.format(Locale.ROOT, "%n  rows %s %s: %d (%.1f/s)",
+                        rows.getKey().get(0), rows.getKey().get(1), count, count / seconds));
+            }
+        }
+
+        Map<List<String>, Distribution> calls = registry.distributions(HTTP_DURATION);
+        if (!calls.isEmpty()) {
+            out.append(String.format(Locale.ROOT, "%n  %-40s %8s %9s %9s %9s %9s", "calls", "count", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+            for (Map.Entry<List<String>, Distribution> call : calls.entrySet()) {
+                Distribution.Snapshot snapshot = call.getValue().snapshot();
+                if (snapshot.count() > 0) {
+                    List<String> labels = call.getKey();
+                    out.append(String.format(Locale.ROOT, "%n  %-40s %8d %9.1f %9.1f %9.1f %9.1f",
+                            labels.get(1) + " " + labels.get(0) + " " + labels.get(2), snapshot.count(),
+                            snapshot.p50() * 1e3, snapshot.p99() * 1e3, snapshot.p999() * 1e3, snapshot.max() * 1e3));
+                }
+            }
+        }
+
+        appendCounters(out, "sent", registry.counters(HTTP_SENT), true);
+        appendCounters(out, "received", registry.counters(HTTP_RECEIVED), true);
+        appendCounters(out, "retries", registry.counters(HTTP_RETRIES), false);
+
+        for (Map.Entry<List<String>, Distribution> polls : registry.distributions(STATUS_POLLS).entrySet()) {
+            Distribution.Snapshot snapshot = polls.getValue().snapshot();
+            if (snapshot.count() > 0) {
+                out.append(String.format(Locale.ROOT, "%n  status polls per %s file: %d files, mean %.1f, p99 %.0f, max %.0f",
+                        polls.getKey().get(0), snapshot.count(), snapshot.sum() / snapshot.count(), snapshot.p99(), snapshot.max()));
+            }
+        }
+
+        StringBuilder peaks = new StringBuilder();
+        for (Map.Entry<List<String>, Gauge> queue : registry.gauges(QUEUE_DEPTH).entrySet()) {
+            long peak = queue.getValue().getPeak();
+            if (peak > 0) {
+                peaks.append(' ').append(queue.getKey().get(0)).append('=').append(peak);
+            }
+        }
+        if (peaks.length() > 0) {
+            out.append(String.format("%n  peak queue depth:")).append(peaks);
+        }
+        return out.toString();
+    }
+
+    private static void appendCounters(StringBuilder out, String title, Map<List<String>, LongAdder> counters, boolean bytes) {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<List<String>, LongAdder> counter : counters.entrySet()) {
+            long value = counter.getValue().sum();
+            if (value > 0) {
+                line.append(' ').append(String.join(" ", counter.getKey())).append('=')
+                        .append(bytes ? String.format(Locale.ROOT, "%.1fMB", value / 1e6) : Long.toString(value));
+            }
+        }
+        if (line.length() > 0) {
+            out.append(String.format("%n  %s:", title)).append(line);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.wipo.das.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of recorded values, such as call durations, kept in an HdrHistogram with three significant
+ * digits.
+ *
+ * <p>Values are recorded into a {@link Recorder}, which never blocks the recording thread; a snapshot folds
+ * the values recorded since the previous snapshot into a cumulative histogram. Values are recorded as
+ * non-negative longs and scaled when read, e.g. durations in microseconds read as seconds.
+ */
+public final class Distribution {
+
+    private final Recorder recorder = new Recorder(3);
+    private final Histogram total = new Histogram(3);
+    private final LongAdder sum = new LongAdder();
+    private final double scale;
+    private Histogram interval;
+
+    Distribution(double scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * @param value in recorded units; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long recorded = Math.max(0, value);
+        recorder.recordValue(recorded);
+        sum.add(recorded);
+    }
+
+    /**
+     * @return count, sum, quantiles and maximum of everything recorded so far, in read units.
+     */
+    public synchronized Snapshot snapshot() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        return new Snapshot(total.getTotalCount(), sum.sum() * scale,
+                total.getValueAtPercentile(50) * scale, total.getValueAtPercentile(90) * scale,
+                total.getValueAtPercentile(99) * scale, total.getValueAtPercentile(99.9) * scale,
+                total.getMaxValue() * scale);
+    }
+
+    synchronized void reset() {
+        recorder.reset();
+        total.reset();
+        sum.reset();
+    }
+
+    /**
+     * Values of a {@link Distribution} at one point in time.
+     */
+    public record Snapshot(long count, double sum, double p50, double p90, double p99, double p999, double max) {
+    }
+}
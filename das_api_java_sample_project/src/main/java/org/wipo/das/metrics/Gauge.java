@@ -0,0 +1,42 @@
+package org.wipo.das.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Current value of something owned elsewhere, such as the length of a queue, plus the highest value seen
+ * whenever it was read.
+ *
+ * <p>A gauge reads its source only when sampled or exported, so the peak is as fine-grained as the sampling
+ * by {@link MetricsExporter}.
+ */
+public final class Gauge {
+
+    private final LongSupplier source;
+    private final AtomicLong peak = new AtomicLong();
+
+    Gauge(LongSupplier source) {
+        this.source = source;
+    }
+
+    /**
+     * @return the current value, also taken into account for the peak.
+     */
+    public long get() {
+        long value = source.getAsLong();
+        peak.accumulateAndGet(value, Math::max);
+        return value;
+    }
+
+    /**
+     * @return the highest value read so far.
+     */
+    public long getPeak() {
+        get();
+        return peak.get();
+    }
+
+    void reset() {
+        peak.set(0);
+    }
+}
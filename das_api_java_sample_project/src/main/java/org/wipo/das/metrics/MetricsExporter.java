@@ -0,0 +1,146 @@
+package org.wipo.das.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.engine.NamedThreadFactory;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes {@link MetricsRegistry#getShared()} while a flow runs and summarises it when the flow ends.
+ *
+ * <p>Settings read from {@code config.properties} (all optional):
+ * <ul>
+ *   <li>{@code metricsFile} – file rewritten with the Prometheus text format, e.g. for the node_exporter
+ *       textfile collector (default none)</li>
+ *   <li>{@code metricsIntervalSeconds} – how often {@code metricsFile} is rewritten (default 15)</li>
+ *   <li>{@code metricsPort} – serve {@code /metrics} on this port of the loopback interface (default none)</li>
+ *   <li>{@code metricsSummary} – log a summary when the flow ends (default true)</li>
+ * </ul>
+ * Queue depths and other gauges are sampled every second so that their peaks are seen between exports.
+ * The file is written to a temporary file and moved into place, so readers never see a partial file.
+ *
+ * <p>The registry is reset when an exporter starts and no other one is running, so flows run one after
+ * the other in the same JVM each report their own numbers.
+ */
+public final class MetricsExporter implements Closeable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+    private static final AtomicInteger running = new AtomicInteger();
+
+    private final MetricsRegistry registry = MetricsRegistry.getShared();
+    private final long startNanos = System.nanoTime();
+    private final ScheduledExecutorService scheduler;
+    private final Path file;
+    private final boolean summary;
+    private HttpServer server;
+
+    private MetricsExporter(Properties config) {
+        String fileName = config.getProperty("metricsFile", "").trim();
+        this.file = fileName.isEmpty() ? null : Paths.get(fileName);
+        this.summary = Boolean.parseBoolean(config.getProperty("metricsSummary", "true").trim());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("das-metrics"));
+        scheduler.scheduleAtFixedRate(registry::sampleGauges, 1, 1, TimeUnit.SECONDS);
+        if (file != null) {
+            long interval = Long.parseLong(config.getProperty("metricsIntervalSeconds", "15").trim());
+            scheduler.scheduleAtFixedRate(this::writeFile, interval, interval, TimeUnit.SECONDS);
+        }
+        String port = config.getProperty("metricsPort", "").trim();
+        if (!port.isEmpty()) {
+            serve(Integer.parseInt(port));
+        }
+    }
+
+    /**
+     * @param config loaded {@code config.properties}.
+     * @return a running exporter; close it when the flow has finished.
+     */
+    public static MetricsExporter start(Properties config) {
+        if (running.getAndIncrement() == 0) {
+            MetricsRegistry.getShared().reset();
+        }
+        return new MetricsExporter(config);
+    }
+
+    /**
+     * @return the port {@code /metrics} is served on, or {@code -1} if it is not served.
+     */
+    public int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    /**
+     * Stops sampling and serving, writes {@code metricsFile} a last time and logs the summary.
+     */
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        scheduler.shutdownNow();
+        registry.sampleGauges();
+        writeFile();
+        if (summary) {
+            logger.info(DasMetrics.summary(System.nanoTime() - startNanos));
+        }
+        running.decrementAndGet();
+    }
+
+    private void serve(int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            logger.warn(String.format("Cannot serve metrics on port %d, continuing without", port), e);
+            return;
+        }
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                StringBuilder text = new StringBuilder();
+                registry.writePrometheus(text);
+                byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.setExecutor(scheduler);
+        server.start();
+        logger.info(String.format("Serving metrics on http://%s:%d/metrics",
+                server.getAddress().getHostString(), server.getAddress().getPort()));
+    }
+
+    private void writeFile() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary)) {
+                registry.writePrometheus(writer);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to write the metrics file " + file, e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.wipo.das.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, distributions and gauges of the client, exported in the Prometheus text format.
+ *
+ * <p>A metric has a name, a help text and label names; a child is created for each distinct set of label
+ * values on first use. Labels are passed as alternating names and values, e.g.
+ * {@code counter("das_rows_total", "Rows processed", "flow", "retrieval", "outcome", "downloaded")}.
+ * Counters are {@link LongAdder}s and distributions are {@link Distribution}s, so recording from many
+ * threads does not contend; callers on hot paths may keep the returned child.
+ *
+ * <p>{@link #getShared()} is the registry the request classes and the engine record into.
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry shared = new MetricsRegistry();
+
+    private final Map<String, Family<?>> families = new ConcurrentHashMap<>();
+
+    /**
+     * @return the registry of this JVM.
+     */
+    public static MetricsRegistry getShared() {
+        return shared;
+    }
+
+    /**
+     * @return the counter with these labels, created at 0 on first use.
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return family(name, help, "counter", LongAdder.class, labels).child(labels, key -> new LongAdder());
+    }
+
+    /**
+     * @param scale factor from recorded to exported units, e.g. {@code 1e-6} for microseconds read as seconds.
+     * @return the distribution with these labels, created empty on first use.
+     */
+    public Distribution distribution(String name, String help, double scale, String... labels) {
+        return family(name, help, "summary", Distribution.class, labels).child(labels, key -> new Distribution(scale));
+    }
+
+    /**
+     * Publishes {@code source} under these labels, replacing whatever was published under them before.
+     */
+    public void gauge(String name, String help, LongSupplier source, String... labels) {
+        family(name, help, "gauge", Gauge.class, labels).children.put(values(labels), new Gauge(source));
+    }
+
+    /**
+     * @return the counters of {@code name} by label values, in label order; empty if there are none.
+     */
+    public Map<List<String>, LongAdder> counters(String name) {
+        return children(name, LongAdder.class);
+    }
+
+    /**
+     * @return the distributions of {@code name} by label values, in label order; empty if there are none.
+     */
+    public Map<List<String>, Distribution> distributions(String name) {
+        return children(name, Distribution.class);
+    }
+
+    /**
+     * @return the gauges of {@code name} by label values, in label order; empty if there are none.
+     */
+    public Map<List<String>, Gauge> gauges(String name) {
+        return children(name, Gauge.class);
+    }
+
+    /**
+     * Reads every gauge once, so that short-lived peaks are seen between exports.
+     */
+    public void sampleGauges() {
+        for (Family<?> family : families.values()) {
+            if (family.type == Gauge.class) {
+                for (Object gauge : family.children.values()) {
+                    ((Gauge) gauge).get();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets every counter and distribution back to zero and forgets gauge peaks, keeping the children so that
+     * callers holding one keep recording into the registry.
+     */
+    public void reset() {
+        for (Family<?> family : families.values()) {
+            for (Object child : family.children.values()) {
+                if (child instanceof LongAdder counter) {
+                    counter.reset();
+                } else if (child instanceof Distribution distribution) {
+                    distribution.reset();
+                } else if (child instanceof Gauge gauge) {
+                    gauge.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format (version 0.0.4). Distributions are
+     * summaries with the 0.5, 0.9, 0.99 and 0.999 quantiles; each gauge is followed by a {@code _peak}
+     * gauge with the highest value seen.
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        for (Family<?> family : new TreeMap<>(families).values()) {
+            Map<List<String>, ?> children = family.sorted();
+            if (children.isEmpty()) {
+                continue;
+            }
+            header(out, family.name, family.help, family.prometheusType);
+            for (Map.Entry<List<String>, ?> entry : children.entrySet()) {
+                String labels = labels(family.labelNames, entry.getKey(), null);
+                Object child = entry.getValue();
+                if (child instanceof LongAdder counter) {
+                    out.append(family.name).append(labels).append(' ').append(Long.toString(counter.sum())).append('\n');
+                } else if (child instanceof Gauge gauge) {
+                    out.append(family.name).append(labels).append(' ').append(Long.toString(gauge.get())).append('\n');
+                } else if (child instanceof Distribution distribution) {
+                    Distribution.Snapshot snapshot = distribution.snapshot();
+                    double[] quantiles = {snapshot.p50(), snapshot.p90(), snapshot.p99(), snapshot.p999()};
+                    String[] names = {"0.5", "0.9", "0.99", "0.999"};
+                    for (int i = 0; i < quantiles.length; i++) {
+                        out.append(family.name).append(labels(family.labelNames, entry.getKey(), names[i]))
+                                .append(' ').append(Double.toString(quantiles[i])).append('\n');
+                    }
+                    out.append(family.name).append("_sum").append(labels).append(' ').append(Double.toString(snapshot.sum())).append('\n');
+                    out.append(family.name).append("_count").append(labels).append(' ').append(Long.toString(snapshot.count())).append('\n');
+                }
+            }
+            if (family.type == Gauge.class) {
+                header(out, family.name + "_peak", "Highest value of " + family.name + " seen", "gauge");
+                for (Map.Entry<List<String>, ?> entry : children.entrySet()) {
+                    out.append(family.name).append("_peak").append(labels(family.labelNames, entry.getKey(), null))
+                            .append(' ').append(Long.toString(((Gauge) entry.getValue()).getPeak())).append('\n');
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Family<T> family(String name, String help, String prometheusType, Class<T> type, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels of " + name + " must be name/value pairs: " + Arrays.toString(labels));
+        }
+        List<String> labelNames = new ArrayList<>();
+        for (int i = 0; i < labels.length; i += 2) {
+            labelNames.add(labels[i]);
+        }
+        Family<?> family = families.computeIfAbsent(name, key -> new Family<>(name, help, prometheusType, type, labelNames));
+        if (family.type != type || !family.labelNames.equals(labelNames)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.prometheusType
+                    + " with labels " + family.labelNames);
+        }
+        return (Family<T>) family;
+    }
+
+    private <T> Map<List<String>, T> children(String name, Class<T> type) {
+        Family<?> family = families.get(name);
+        if (family == null || family.type != type) {
+            return Collections.emptyMap();
+        }
+        @SuppressWarnings("unchecked")
+        Map<List<String>, T> sorted = (Map<List<String>, T>) family.sorted();
+        return sorted;
+    }
+
+    private static List<String> values(String... labels) {
+        List<String> values = new ArrayList<>(labels.length / 2);
+        for (int i = 1; i < labels.length; i += 2) {
+            values.add(labels[i] == null ? "" : labels[i]);
+        }
+        return values;
+    }
+
+    private static void header(Appendable out, String name, String help, String type) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String labels(List<String> names, List<String> values, String quantile) {
+        if (names.isEmpty() && quantile == null) {
+            return "";
+        }
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(names.get(i)).append("=\"")
+                    .append(values.get(i).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        if (quantile != null) {
+            labels.append(names.isEmpty() ? "" : ",").append("quantile=\"").append(quantile).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static final class Family<T> {
+
+        final String name;
+        final String help;
+        final String prometheusType;
+        final Class<T> type;
+        final List<String> labelNames;
+        final Map<List<String>, T> children = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String prometheusType, Class<T> type, List<String> labelNames) {
+            this.name = name;
+            this.help = help;
+            this.prometheusType = prometheusType;
+            this.type = type;
+            this.labelNames = List.copyOf(labelNames);
+        }
+
+        T child(String[] labels, Function<List<String>, T> create) {
+            List<String> values = values(labels);
+            T child = children.get(values);
+            return child != null ? child : children.computeIfAbsent(values, create);
+        }
+
+        Map<List<String>, T> sorted() {
+            Map<List<String>, T> sorted = new TreeMap<>((a, b) -> String.join("\u0000", a).compareTo(String.join("\u0000", b)));
+            sorted.putAll(children);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package org.wipo.das.requests;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.metrics.DasMetrics;
+import org.wipo.das.metrics.MetricsRegistry;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Interceptor that limits the in-flight calls per DAS endpoint and adapts the limit to how the endpoint
+ * responds (AIMD: additive increase, multiplicative decrease).
+ *
+ * <p>Calls are grouped by endpoint (see {@link DasEndpoints}): {@code registrations},
+ * {@code registrations/certificates}, {@code retrievals}, {@code files}, {@code files/url-uploads} and
+ * {@code files/url-downloads} below the configured {@code url}, {@code access_token} for the OAuth server,
+ * and the host for any other call, such as pre-signed storage URLs. Each group has its own limit, starting
+ * at {@code adaptiveInitialLimit} (default 8):
+ * <ul>
+ *   <li>A call that finishes while at least half the limit is in use raises the limit by {@code 1/limit},
+ *   so the limit grows by about one per round of calls.</li>
+ *   <li>A {@code 429} or {@code 503} response, or a timeout, halves the limit. The group then sends nothing
+ *   until {@code Retry-After} has passed, or 1 second if the header is missing.</li>
+ *   <li>For DAS endpoints, a response slower than {@code adaptiveLatencyTolerance} (default 2.0) times the
+ *   endpoint's baseline latency cuts the limit by 10%. Responses faster than 50 ms never do. The baseline
+ *   follows the fastest responses and drifts up slowly. Storage and OAuth calls skip this check, because their latency depends on the
+ *   file size.</li>
+ * </ul>
+ * The limit stays between 1 and {@code adaptiveMaxLimit} (default 64). A call counts as in flight until
+ * its response headers arrive.
+ *
+ * <p>{@code 429} and {@code 503} responses to replayable requests are retried up to
+ * {@code adaptiveMaxRetries} times (default 2). The wait honours {@code Retry-After}, capped at 60 seconds,
+ * and otherwise backs off exponentially from 1 second.
+ *
+ * <p>Each endpoint's limit, in-flight calls and waiting calls are published as gauges in the
+ * {@link MetricsRegistry}, and every retry is counted there.
+ */
+public final class AdaptiveConcurrencyLimiter implements Interceptor {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private static final long DEFAULT_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final double THROTTLED_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double BASELINE_DRIFT = 0.01;
+    // Below this, latency swings are jitter rather than queueing
+    private static final long MIN_LATENCY_SIGNAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final DasEndpoints endpoints;
+    private final double initialLimit;
+    private final double maxLimit;
+    private final double latencyTolerance;
+    private final int maxRetries;
+    private final Map<String, EndpointLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @param config loaded {@code config.properties}; {@code url} and {@code issuer} identify the endpoints.
+     */
+    public AdaptiveConcurrencyLimiter(Properties config) {
+        this.endpoints = new DasEndpoints(config);
+        this.maxLimit = Math.max(1, Double.parseDouble(config.getProperty("adaptiveMaxLimit", "64").trim()));
+        this.initialLimit = Math.min(maxLimit, Math.max(1,
+                Double.parseDouble(config.getProperty("adaptiveInitialLimit", "8").trim())));
+        this.latencyTolerance = Double.parseDouble(config.getProperty("adaptiveLatencyTolerance", "2.0").trim());
+        this.maxRetries = Integer.parseInt(config.getProperty("adaptiveMaxRetries", "2").trim());
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        EndpointLimit limit = limits.computeIfAbsent(endpoints.of(request.url()), EndpointLimit::new);
+        boolean replayable = request.body() == null || !request.body().isOneShot();
+
+        for (int attempt = 0; ; attempt++) {
+            limit.acquire();
+            long start = System.nanoTime();
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (e instanceof SocketTimeoutException) {
+                    limit.onThrottled(start, DEFAULT_PAUSE_NANOS, "timeout");
+                }
+                limit.release();
+                throw e;
+            }
+            int code = response.code();
+            if (code != 429 && code != 503) {
+                limit.onResponse(start, System.nanoTime() - start);
+                limit.release();
+                return response;
+            }
+
+            long retryAfter = retryAfterNanos(response.header("Retry-After"));
+            limit.onThrottled(start, retryAfter >= 0 ? retryAfter : DEFAULT_PAUSE_NANOS << Math.min(attempt, 6),
+                    String.valueOf(code));
+            limit.release();
+            if (attempt >= maxRetries || !replayable) {
+                return response;
+            }
+            response.close();
+            DasMetrics.retry(limit.endpoint, String.valueOf(code));
+            logger.info(String.format("%s returned %d, retrying (%d of %d)", limit.endpoint, code, attempt + 1, maxRetries));
+        }
+    }
+
+    /**
+     * @return the current limit of every endpoint seen so far.
+     */
+    public Map<String, Integer> getLimits() {
+        Map<String, Integer> result = new TreeMap<>();
+        limits.forEach((endpoint, limit) -> result.put(endpoint, limit.currentLimit()));
+        return result;
+    }
+
+    /**
+     * @return the delay requested by a {@code Retry-After} header (seconds or HTTP date), capped at 60
+     *         seconds, or {@code -1} if absent or unreadable.
+     */
+    private static long retryAfterNanos(String header) {
+        if (header == null || header.isBlank()) {
+            return -1;
+        }
+        long nanos;
+        try {
+            nanos = TimeUnit.SECONDS.toNanos(Long.parseLong(header.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                nanos = TimeUnit.MILLISECONDS.toNanos(at.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException notADate) {
+                return -1;
+            }
+        }
+        return Math.max(0, Math.min(MAX_PAUSE_NANOS, nanos));
+    }
+
+    /**
+     * Limit and in-flight count of one endpoint.
+     *
+     * <p>Guarded by a {@link ReentrantLock} rather than the monitor, so a virtual thread waiting for a
+     * slot does not pin its carrier.
+     */
+    private final class EndpointLimit {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        private final String endpoint;
+        private final boolean latencySensitive;
+        private double limit = initialLimit;
+        private int inFlight;
+        private int waiting;
+        private long pausedUntil = System.nanoTime();
+        private long lastDecrease = pausedUntil;
+        private double baselineNanos;
+
+        EndpointLimit(String endpoint) {
+            this.endpoint = endpoint;
+            this.latencySensitive = DasEndpoints.isDas(endpoint);
+            DasMetrics.concurrency(endpoint, this::currentLimit, this::currentInFlight);
+            DasMetrics.queueDepth("limiter/" + endpoint, this::currentWaiting);
+        }
+
+        void acquire() throws InterruptedIOException {
+            lock.lock();
+            try {
+                waiting++;
+                while (true) {
+                    long paused = pausedUntil - System.nanoTime();
+                    if (paused > 0) {
+                        available.awaitNanos(paused);
+                    } else if (inFlight >= (int) limit) {
+                        available.await();
+                    } else {
+                        break;
+                    }
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a " + endpoint + " slot");
+            } finally {
+                waiting--;
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onResponse(long startNanos, long latencyNanos) {
+            lock.lock();
+            try {
+                if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+                    baselineNanos = latencyNanos;
+                } else {
+                    baselineNanos += (latencyNanos - baselineNanos) * BASELINE_DRIFT;
+                }
+                if (latencySensitive && latencyNanos > MIN_LATENCY_SIGNAL_NANOS && latencyNanos > baselineNanos * latencyTolerance) {
+                    decrease(startNanos, LATENCY_BACKOFF, "latency");
+                } else if (inFlight >= limit / 2) {
+                    setLimit(limit + 1 / limit, null);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onThrottled(long startNanos, long pauseNanos, String reason) {
+            lock.lock();
+            try {
+                decrease(startNanos, THROTTLED_BACKOFF, reason);
+                long until = System.nanoTime() + pauseNanos;
+                if (until - pausedUntil > 0) {
+                    pausedUntil = until;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int currentLimit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int currentInFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int currentWaiting() {
+            lock.lock();
+            try {
+                return waiting;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Lowers the limit, unless the call started before the last decrease; calls already in flight then
+         * reflect the load that decrease reacted to.
+         */
+        private void decrease(long startNanos, double factor, String reason) {
+            if (startNanos - lastDecrease < 0) {
+                return;
+            }
+            lastDecrease = System.nanoTime();
+            setLimit(limit * factor, reason);
+        }
+
+        private void setLimit(double newLimit, String reason) {
+            int before = (int) limit;
+            limit = Math.max(1, Math.min(maxLimit, newLimit));
+            if ((int) limit != before) {
+                if (reason != null) {
+                    logger.info(String.format("Concurrency limit for %s lowered to %d (%s)", endpoint, (int) limit, reason));
+                } else {
+                    logger.debug(String.format("Concurrency limit for %s raised to %d", endpoint, (int) limit));
+                }
+            }
+        }
+    }
+}
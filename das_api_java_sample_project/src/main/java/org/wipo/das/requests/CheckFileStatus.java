@@ -2,11 +2,10 @@ package org.wipo.das.requests;
 
 import okhttp3.*;
 import org.apache.logging.log4j.Logger;
-import org.json.JSONObject;
 import org.wipo.das.restapitest.ConfigManager;
 
 import java.io.IOException;
-import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Polls the DAS API for the processing status of an uploaded file.
@@ -17,14 +16,17 @@ import java.util.Properties;
  * <ul>
  *   <li>{@code fileSizeQuantity} – presence indicates processing finished</li>
  *   <li>{@code fileStatusCategory} – implies acceptance</li>
- *   <li>{@code error} – indicates rejection</li>
+ *   <li>{@code error} – indicates rejection when {@code fileStatusCategory} is absent</li>
  * </ul>
- * Behavior: polls every 5 seconds until status is determined.
+ * Behavior: {@link #getFileStatus()} polls every 5 seconds until status is determined;
+ * {@link #checkFileStatusAsync()} checks once without blocking, for use by a scheduler such as
+ * {@link org.wipo.das.engine.FileStatusPoller}.
  */
 public class CheckFileStatus {
 
     private static final Logger logger = ConfigManager.getLogger();
 
+    private final OkHttpClient client;
     private final String fileId;
     private final String url;
     private final String token;
@@ -37,6 +39,19 @@ public class CheckFileStatus {
      * @param fileId identifier returned by {@code /files/url-uploads}.
      */
     public CheckFileStatus(String dasEndPoint, String authorizationToken, String fileId) {
+        this(DasHttpClient.getShared(), dasEndPoint, authorizationToken, fileId);
+    }
+
+    /**
+     * Creates a polling helper that issues its requests through the given shared client.
+     *
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param dasEndPoint Base DAS requests URL (e.g. {@code .../das-api/v1/requests}).
+     * @param authorizationToken OAuth2 bearer token.
+     * @param fileId identifier returned by {@code /files/url-uploads}.
+     */
+    public CheckFileStatus(OkHttpClient client, String dasEndPoint, String authorizationToken, String fileId) {
+        this.client = client;
         this.fileId = fileId;
         this.url = dasEndPoint+"/files";
         this.token = authorizationToken;
@@ -51,47 +66,15 @@ public class CheckFileStatus {
     public String getFileStatus() throws IOException {
         logger.info("Checking file status...");
         String fileStatus = null;
-        // Create a custom client with a longer timeout
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-                .build();
 
-         while (fileStatus == null) {
-            Request request = new Request.Builder()
-                    .url(String.format("%s?fileId=%s", url, fileId))
-                    .method("GET", null)
-                    //.addHeader("Accept", "application/json")
-                    .addHeader("Authorization", "Bearer " + token)
-                    .build();
-            //logger.warn(request.toString());
-            Response response = client.newCall(request).execute();
-            String responseBody = response.body().string();
-
-            logger.info(responseBody);
-
-            if (response.isSuccessful()) {
-                JSONObject jsonObject = new JSONObject(responseBody);
-                String fileSizeQuantity = jsonObject.optString("fileSizeQuantity");
-                String fileStatusCategory = jsonObject.optString("fileStatusCategory");
-                String error = jsonObject.optString("error");
-
-                if (fileSizeQuantity == null || fileSizeQuantity.equals("")) {
-                    logger.warn("File is still being processed.");
-                } else if (fileStatusCategory != null) {
-                    logger.warn("File was accepted! with SizeQuantity=" + fileSizeQuantity);
-                    fileStatus = "ACCEPTED";
-                } else if (error != null) {
-                    logger.error(String.format("File was rejected due to the following error: %s", error));
-                    logger.error(response.toString());
-                    fileStatus = "REJECTED";
-                } 
-            } else {
-                logger.error(String.format("Failed to check file status. Response status: %d", response.code()));
-                logger.error(String.format("Response body: %s", responseBody));
+        while (fileStatus == null) {
+            try (Response response = client.newCall(newRequest()).execute()) {
+                fileStatus = handleResponse(response);
             }
 
+            if (fileStatus != null) {
+                break;
+            }
             // Wait for 5 seconds before checking again
             try {
                 Thread.sleep(5000);
@@ -102,4 +85,73 @@ public class CheckFileStatus {
 
         return fileStatus;
     }
+
+    /**
+     * Checks the status once, without blocking the calling thread.
+     *
+     * <p>The request is queued on the client's dispatcher; the returned future completes on an OkHttp
+     * callback thread.
+     *
+     * @return future of {@code "ACCEPTED"}, {@code "REJECTED"}, or {@code null} while DAS is still
+     *         processing the file or the status request was not successful; completes exceptionally on
+     *         transport failures.
+     */
+    public CompletableFuture<String> checkFileStatusAsync() {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        client.newCall(newRequest()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    result.complete(handleResponse(response));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    private Request newRequest() {
+        return new Request.Builder()
+                .url(String.format("%s?fileId=%s", url, fileId))
+                .method("GET", null)
+                .addHeader("Authorization", "Bearer " + token)
+                .build();
+    }
+
+    /**
+     * @return {@code null} while {@code fileSizeQuantity} is absent; then {@code ACCEPTED}, or {@code REJECTED}
+     *         if the answer has an {@code error} and no {@code fileStatusCategory}.
+     */
+    private String handleResponse(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            logger.error(String.format("Failed to check file status. Response status: %d", response.code()));
+            logger.error(String.format("Response body: %s", response.body().string()));
+            return null;
+        }
+
+        String[] fields = DasJson.fields(response.body(), "fileSizeQuantity", "fileStatusCategory", "error");
+        String fileSizeQuantity = fields[0];
+        String fileStatusCategory = fields[1];
+        String error = fields[2];
+        logger.debug(String.format("File status: fileSizeQuantity=%s, fileStatusCategory=%s, error=%s",
+                fileSizeQuantity, fileStatusCategory, error));
+
+        if (fileSizeQuantity == null || fileSizeQuantity.equals("")) {
+            logger.warn("File is still being processed.");
+            return null;
+        } else if (fileStatusCategory != null || error == null) {
+            logger.warn("File was accepted! with SizeQuantity=" + fileSizeQuantity);
+            return "ACCEPTED";
+        } else {
+            logger.error(String.format("File was rejected due to the following error: %s", error));
+            logger.error(response.toString());
+            return "REJECTED";
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package org.wipo.das.requests;
+
+import okhttp3.HttpUrl;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Names the endpoint a call goes to, for per-endpoint limits and metrics.
+ *
+ * <p>Below the configured {@code url}, the endpoint is the first one or two path segments, e.g.
+ * {@code registrations}, {@code registrations/certificates}, {@code files} or {@code files/url-uploads}.
+ * The token call below the configured {@code issuer} is {@code access_token}. Any other call, such as
+ * one to a pre-signed storage URL, is named after its host.
+ */
+final class DasEndpoints {
+
+    private static final List<String> DAS_ENDPOINTS = List.of("registrations", "retrievals", "files");
+
+    private final String dasHost;
+    private final List<String> dasPath;
+    private final String issuerHost;
+    private final List<String> issuerPath;
+
+    /**
+     * @param config loaded {@code config.properties}; {@code url} and {@code issuer} identify the endpoints.
+     */
+    DasEndpoints(Properties config) {
+        HttpUrl dasUrl = HttpUrl.parse(config.getProperty("url", "").trim());
+        this.dasHost = dasUrl == null ? null : dasUrl.host();
+        this.dasPath = dasUrl == null ? List.of() : nonEmpty(dasUrl.pathSegments());
+        HttpUrl issuerUrl = HttpUrl.parse(config.getProperty("issuer", "").trim());
+        this.issuerHost = issuerUrl == null ? null : issuerUrl.host();
+        this.issuerPath = issuerUrl == null ? List.of() : nonEmpty(issuerUrl.pathSegments());
+    }
+
+    /**
+     * @return the endpoint of {@code url}.
+     */
+    String of(HttpUrl url) {
+        List<String> segments = nonEmpty(url.pathSegments());
+        if (below(url, segments, dasHost, dasPath) && DAS_ENDPOINTS.contains(segments.get(dasPath.size()))) {
+            return String.join("/", segments.subList(dasPath.size(), Math.min(segments.size(), dasPath.size() + 2)));
+        }
+        if (below(url, segments, issuerHost, issuerPath) && segments.get(segments.size() - 1).equals("access_token")) {
+            return "access_token";
+        }
+        return url.host();
+    }
+
+    /**
+     * @return whether {@code endpoint} is part of the DAS API, as opposed to storage or OAuth.
+     */
+    static boolean isDas(String endpoint) {
+        return DAS_ENDPOINTS.contains(endpoint.split("/")[0]);
+    }
+
+    private static boolean below(HttpUrl url, List<String> segments, String host, List<String> path) {
+        return url.host().equals(host) && segments.size() > path.size() && segments.subList(0, path.size()).equals(path);
+    }
+
+    private static List<String> nonEmpty(List<String> segments) {
+        return segments.stream().filter(segment -> !segment.isEmpty()).toList();
+    }
+}
@@ -0,0 +1,112 @@
+package org.wipo.das.requests;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.wipo.das.engine.NamedThreadFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared HTTP transport for all DAS request classes.
+ *
+ * <p>A single {@link OkHttpClient} owns one connection pool and one dispatcher, so a batch keeps
+ * warm (TLS-negotiated) connections to both the DAS host and the pre-signed storage host instead of
+ * paying a new handshake for every call.
+ *
+ * <p>Settings read from {@code config.properties} (all optional):
+ * <ul>
+ *   <li>{@code httpMaxIdleConnections} – idle connections kept in the pool (default 20)</li>
+ *   <li>{@code httpKeepAliveSeconds} – how long an idle connection is kept (default 300)</li>
+ *   <li>{@code httpEnableHttp2} – negotiate HTTP/2 when the server supports it (default true)</li>
+ *   <li>{@code httpMaxRequests}, {@code httpMaxRequestsPerHost} – dispatcher limits for async calls (default 256 / 64)</li>
+ *   <li>{@code httpConnectTimeoutSeconds}, {@code httpWriteTimeoutSeconds}, {@code httpReadTimeoutSeconds} (default 30 / 30 / 60)</li>
+ *   <li>{@code adaptiveConcurrency} – install an {@link AdaptiveConcurrencyLimiter} (default true)</li>
+ *   <li>{@code metrics} – record every call in the metrics registry and the row traces with a {@link MetricsInterceptor} (default true)</li>
+ * </ul>
+ */
+public final class DasHttpClient {
+
+    private static volatile OkHttpClient shared;
+
+    private DasHttpClient() {
+    }
+
+    /**
+     * Builds a new client from the given configuration.
+     *
+     * @param config loaded {@code config.properties}; missing keys fall back to defaults.
+     * @return a client with its own connection pool and dispatcher.
+     */
+    public static OkHttpClient create(Properties config) {
+        ConnectionPool pool = new ConnectionPool(
+                intProperty(config, "httpMaxIdleConnections", 20),
+                intProperty(config, "httpKeepAliveSeconds", 300), TimeUnit.SECONDS);
+
+        // Same pool shape as OkHttp's default, but daemon threads: idle callback threads otherwise keep
+        // the JVM alive for a minute after a flow has finished
+        Dispatcher dispatcher = new Dispatcher(new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new NamedThreadFactory("das-http-dispatcher")));
+        dispatcher.setMaxRequests(intProperty(config, "httpMaxRequests", 256));
+        dispatcher.setMaxRequestsPerHost(intProperty(config, "httpMaxRequestsPerHost", 64));
+
+        boolean http2 = Boolean.parseBoolean(config.getProperty("httpEnableHttp2", "true"));
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        if (Boolean.parseBoolean(config.getProperty("metrics", "true").trim())) {
+            // Outermost, so call durations include waiting for a concurrency slot
+            builder.addInterceptor(new MetricsInterceptor(config));
+        }
+        if (Boolean.parseBoolean(config.getProperty("adaptiveConcurrency", "true").trim())) {
+            // Per-endpoint in-flight limits that back off on 429/503 and rising latency
+            builder.addInterceptor(new AdaptiveConcurrencyLimiter(config));
+        }
+        return builder
+                .connectionPool(pool)
+                .dispatcher(dispatcher)
+                .protocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(intProperty(config, "httpConnectTimeoutSeconds", 30), TimeUnit.SECONDS)
+                .writeTimeout(intProperty(config, "httpWriteTimeoutSeconds", 30), TimeUnit.SECONDS)
+                .readTimeout(intProperty(config, "httpReadTimeoutSeconds", 60), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Builds the process-wide client from configuration and makes it the shared instance.
+     *
+     * @param config loaded {@code config.properties}.
+     * @return the new shared client.
+     */
+    public static synchronized OkHttpClient configure(Properties config) {
+        shared = create(config);
+        return shared;
+    }
+
+    /**
+     * @return the shared client; created with default settings if {@link #configure(Properties)} was never called.
+     */
+    public static OkHttpClient getShared() {
+        OkHttpClient client = shared;
+        if (client == null) {
+            synchronized (DasHttpClient.class) {
+                if (shared == null) {
+                    shared = create(new Properties());
+                }
+                client = shared;
+            }
+        }
+        return client;
+    }
+
+    static int intProperty(Properties config, String key, int defaultValue) {
+        String value = config.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+}
@@ -0,0 +1,175 @@
+package org.wipo.das.requests;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * JSON codec of the request classes, on Jackson.
+ *
+ * <p>Request bodies are records written by {@link ObjectWriter}s built once, so values are escaped and no
+ * per-call serializer lookup is made. Responses are read with the streaming parser, which keeps only the
+ * requested top-level fields and stops once it has all of them instead of building the whole document.
+ * The parser needs only {@code jackson-core}; the {@code ObjectMapper} and its writers are built on the
+ * first request body, so a run that only reads (e.g. the token exchange) does not load databind.
+ */
+public final class DasJson {
+
+    static final MediaType JSON = MediaType.get("application/json");
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    private DasJson() {
+    }
+
+    /**
+     * @return body of {@code POST /registrations}.
+     */
+    static RequestBody registration(String documentKindCategory, String documentNumber, String documentDate,
+                                    String dasAccessCode, String applicationCategory, String applicationNumber,
+                                    String applicationFilingDate, String fileId) throws IOException {
+        return body(Writers.registration, new Registration("registration", documentKindCategory, documentNumber,
+                documentDate, dasAccessCode, applicationCategory, applicationNumber, applicationFilingDate, null, fileId));
+    }
+
+    /**
+     * @return body of {@code POST /retrievals}.
+     */
+    static RequestBody retrieval(String documentKindCategory, String documentNumber, String documentDate,
+                                 String dasAccessCode) throws IOException {
+        return body(Writers.retrieval, new Retrieval("retrieval", documentKindCategory, documentNumber, documentDate,
+                dasAccessCode, null, null, null));
+    }
+
+    /**
+     * @return body of {@code POST /files/url-downloads}.
+     */
+    static RequestBody downloadUrl(String documentKindCategory, String documentNumber, String documentDate,
+                                   String osfAckId) throws IOException {
+        return body(Writers.downloadUrl, new DownloadUrl(documentKindCategory, documentNumber, documentDate, osfAckId));
+    }
+
+    /**
+     * @return body of {@code POST /files/url-uploads}.
+     */
+    static RequestBody uploadUrl(String fileReference, String fileFormatCategory, String fileChecksum)
+            throws IOException {
+        return body(Writers.uploadUrl, new UploadUrl(fileReference, fileFormatCategory, fileChecksum));
+    }
+
+    /**
+     * @return body of {@code PUT /files/url-uploads}.
+     */
+    static RequestBody updatedUploadUrl(String fileId) throws IOException {
+        return body(Writers.updatedUploadUrl, new UpdatedUploadUrl(fileId));
+    }
+
+    private static RequestBody body(ObjectWriter writer, Object value) throws IOException {
+        return RequestBody.create(writer.writeValueAsBytes(value), JSON);
+    }
+
+    /**
+     * Reads one top-level field of a response.
+     *
+     * @return the field as text, or {@code null} if it is missing, {@code null} or not a scalar.
+     * @throws IOException if the body cannot be read or is not a JSON object.
+     */
+    public static String field(ResponseBody body, String name) throws IOException {
+        return fields(body, name)[0];
+    }
+
+    /**
+     * Reads top-level fields of a response, streaming the body.
+     *
+     * @param names fields to read.
+     * @return the fields as text, in the order of {@code names}; {@code null} for fields that are missing,
+     *         {@code null} or not scalars. Numbers are returned as written.
+     * @throws IOException if the body cannot be read or is not a JSON object.
+     */
+    public static String[] fields(ResponseBody body, String... names) throws IOException {
+        try (InputStream in = body.byteStream(); JsonParser parser = factory.createParser(in)) {
+            return fields(parser, names);
+        }
+    }
+
+    /**
+     * Same as {@link #fields(ResponseBody, String...)} for a response already read as text.
+     */
+    public static String[] fields(String json, String... names) throws IOException {
+        try (JsonParser parser = factory.createParser(json)) {
+            return fields(parser, names);
+        }
+    }
+
+    private static String[] fields(JsonParser parser, String[] names) throws IOException {
+        String[] values = new String[names.length];
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object in the response");
+        }
+        int missing = names.length;
+        while (missing > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value.isScalarValue()) {
+                for (int i = 0; i < names.length; i++) {
+                    if (values[i] == null && names[i].equals(name)) {
+                        values[i] = parser.getValueAsString();
+                        if (values[i] != null) {
+                            missing--;
+                        }
+                        break;
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writers of the request bodies, built when the first body is written.
+     */
+    private static final class Writers {
+        private static final ObjectMapper mapper = new ObjectMapper();
+        private static final ObjectWriter registration = mapper.writerFor(Registration.class);
+        private static final ObjectWriter retrieval = mapper.writerFor(Retrieval.class);
+        private static final ObjectWriter downloadUrl = mapper.writerFor(DownloadUrl.class);
+        private static final ObjectWriter uploadUrl = mapper.writerFor(UploadUrl.class);
+        private static final ObjectWriter updatedUploadUrl = mapper.writerFor(UpdatedUploadUrl.class);
+    }
+
+    @JsonPropertyOrder({"operationCategory", "documentKindCategory", "documentNumber", "documentDate", "dasAccessCode",
+            "applicationCategory", "applicationNumber", "applicationFilingDate", "email", "fileId"})
+    record Registration(String operationCategory, String documentKindCategory, String documentNumber,
+                        String documentDate, String dasAccessCode, String applicationCategory,
+                        String applicationNumber, String applicationFilingDate, String email, String fileId) {
+    }
+
+    @JsonPropertyOrder({"operationCategory", "documentKindCategory", "documentNumber", "documentDate", "dasAccessCode",
+            "applicationCategory", "applicationNumber", "applicationFilingDate"})
+    record Retrieval(String operationCategory, String documentKindCategory, String documentNumber,
+                     String documentDate, String dasAccessCode, String applicationCategory,
+                     String applicationNumber, String applicationFilingDate) {
+    }
+
+    @JsonPropertyOrder({"documentKindCategory", "documentNumber", "documentDate", "osfAckId"})
+    record DownloadUrl(String documentKindCategory, String documentNumber, String documentDate, String osfAckId) {
+    }
+
+    @JsonPropertyOrder({"fileReference", "fileFormatCategory", "fileChecksum"})
+    record UploadUrl(String fileReference, String fileFormatCategory, String fileChecksum) {
+    }
+
+    record UpdatedUploadUrl(String fileId) {
+    }
+}
@@ -0,0 +1,38 @@
+package org.wipo.das.requests;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of 1 MiB direct buffers shared by the file hashing and download paths.
+ *
+ * <p>Direct buffers are costly to allocate and are only freed by the garbage collector, so they are
+ * recycled instead. The pool holds at most as many buffers as were in use at the same time. Unlike a
+ * {@code ThreadLocal}, it does not grow with the number of (virtual) threads.
+ */
+final class DirectBuffers {
+
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private static final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * @return a cleared buffer of {@link #BUFFER_SIZE} bytes; hand it back with {@link #release(ByteBuffer)}.
+     */
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    static void release(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+}
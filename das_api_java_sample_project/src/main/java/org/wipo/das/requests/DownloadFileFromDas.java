@@ -0,0 +1,488 @@
+package org.wipo.das.requests;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a file from a pre-signed download URL returned by DAS.
+ *
+ * <p>Endpoint: {@code GET {fileDownloadUrl}} (pre-signed)
+ * <br>Auth: Not required; the URL is pre-signed.
+ * <br>Behavior: streams the body into {@code <target>.part} through a pooled 1 MiB direct buffer and a
+ * {@link FileChannel}. Once the whole body has arrived, it forces the file to disk and atomically
+ * renames it to {@code target}. A file under the final name is therefore always complete.
+ *
+ * <p>An interrupted download keeps its {@code .part} file, and {@code <target>.validator} keeps the
+ * document's strong {@code ETag} (or else its {@code Last-Modified}) and total length. The next attempt,
+ * usually with a fresh pre-signed URL, asks only for the missing bytes with {@code Range: bytes=<n>-} and
+ * {@code If-Range: <validator>}. The file is downloaded again from the start if the server ignores the
+ * range, if the document changed (a {@code 200}, or a {@code 206} with another validator or length), or if
+ * no validator was recorded.
+ *
+ * <p>With {@code segments > 1}, files of at least {@code segmentMinBytes} are fetched as that many byte
+ * ranges in parallel, each into its own {@code <target>.part-<start>-<end>} file, and then joined into
+ * {@code <target>.part}. Each segment resumes on its own. The size is probed first with
+ * {@code Range: bytes=0-0}. Servers that do not answer with {@code 206} are read as a single stream.
+ * The segment files on disk are listed in {@code <target>.segments}; when the document, its size or the
+ * split changes, or the file is no longer split, segments of the earlier split are deleted instead of
+ * being resumed. Segment requests carry {@code If-Range} as well.
+ *
+ * <p>Instances are immutable, so several downloads can run concurrently.
+ */
+public class DownloadFileFromDas {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (?:(\\d+)-(\\d+)|\\*)/(\\d+)");
+
+    private final OkHttpClient client;
+    private final String downloadUrl;
+    private final Path target;
+    private final int segments;
+    private final long segmentMinBytes;
+
+    /**
+     * @param downloadUrl pre-signed URL from {@code /files/url-downloads}.
+     * @param target final location of the file; its folder is created if absent.
+     */
+    public DownloadFileFromDas(String downloadUrl, Path target) {
+        this(DasHttpClient.getShared(), downloadUrl, target);
+    }
+
+    /**
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param downloadUrl pre-signed URL from {@code /files/url-downloads}.
+     * @param target final location of the file; its folder is created if absent.
+     */
+    public DownloadFileFromDas(OkHttpClient client, String downloadUrl, Path target) {
+        this(client, downloadUrl, target, 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param downloadUrl pre-signed URL from {@code /files/url-downloads}.
+     * @param target final location of the file; its folder is created if absent.
+     * @param segments number of byte ranges fetched in parallel; {@code 1} downloads a single stream.
+     * @param segmentMinBytes smallest file size that is split into segments.
+     */
+    public DownloadFileFromDas(OkHttpClient client, String downloadUrl, Path target, int segments, long segmentMinBytes) {
+        this.client = client;
+        this.downloadUrl = downloadUrl;
+        this.target = target;
+        this.segments = Math.max(1, segments);
+        this.segmentMinBytes = segmentMinBytes;
+    }
+
+    /**
+     * Executes the download, resuming from an earlier partial download if there is one.
+     *
+     * @return size of the downloaded file.
+     * @throws IOException on HTTP failures, a truncated body, or file write errors; the bytes received
+     *         so far are kept for the next attempt.
+     */
+    public long download() throws IOException {
+        Path folder = target.toAbsolutePath().getParent();
+        if (folder != null) {
+            Files.createDirectories(folder);
+        }
+        Path partFile = partFile(target);
+
+        long size = -1;
+        // An existing .part is resumed as one stream, whatever mode it was started in
+        if (segments > 1 && !Files.exists(partFile)) {
+            Validator probed = probe();
+            if (probed != null && probed.length() >= segmentMinBytes) {
+                size = downloadSegments(partFile, probed);
+            }
+        }
+        if (size < 0) {
+            discardSegments(List.of());
+            size = downloadStream(partFile);
+        }
+        Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(validatorFile(target));
+        logger.info(String.format("file downloaded as: %s (%d bytes)", target, size));
+        return size;
+    }
+
+    /**
+     * Fetches the file as one stream into {@code partFile}, appending to the bytes already there if they
+     * belong to the same document.
+     */
+    private long downloadStream(Path partFile) throws IOException {
+        long offset = Files.exists(partFile) ? Files.size(partFile) : 0;
+        Validator resumed = offset > 0 ? Validator.read(validatorFile(target)) : null;
+        if (offset > 0 && (resumed == null || !resumed.canResume())) {
+            logger.warn(String.format("Partial download %s has no recorded validator, starting over", partFile));
+            return startOver(partFile);
+        }
+        Request.Builder builder = new Request.Builder()
+                .url(downloadUrl)
+                .get();
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-").header("If-Range", resumed.value());
+        }
+
+        try (Response response = client.newCall(builder.build()).execute()) {
+            if (offset > 0 && response.code() == 416) {
+                long[] range = contentRange(response.header("Content-Range"));
+                if (range != null && range[2] == offset && resumed.equals(Validator.of(response, range[2]))) {
+                    // A previous run got every byte but stopped before the rename
+                    return offset;
+                }
+            } else {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Failed to download file. Response code: " + response.code());
+                }
+                ResponseBody body = response.body();
+                boolean resuming = offset > 0 && response.code() == 206;
+                if (resuming) {
+                    long[] range = contentRange(response.header("Content-Range"));
+                    if (range == null || range[0] != offset) {
+                        throw new IOException("Unexpected Content-Range: " + response.header("Content-Range"));
+                    }
+                    if (resumed.equals(Validator.of(response, range[2]))) {
+                        logger.info(String.format("Resuming %s from byte %d", target, offset));
+                        return offset + writeStream(body, partFile, true);
+                    }
+                } else {
+                    if (offset > 0) {
+                        logger.info(String.format("Document changed or the range was ignored, downloading %s from the start", target));
+                    }
+                    Validator.of(response, body.contentLength()).write(validatorFile(target));
+                    return writeStream(body, partFile, false);
+                }
+            }
+        }
+        logger.warn(String.format("Partial download %s does not match the document, starting over", partFile));
+        return startOver(partFile);
+    }
+
+    private long startOver(Path partFile) throws IOException {
+        Files.delete(partFile);
+        Files.deleteIfExists(validatorFile(target));
+        return downloadStream(partFile);
+    }
+
+    private static long writeStream(ResponseBody body, Path partFile, boolean append) throws IOException {
+        long written = writeBody(body.source(), partFile, append);
+        long expected = body.contentLength();
+        if (expected >= 0 && written != expected) {
+            throw new IOException(String.format("Download truncated: %d of %d bytes", written, expected));
+        }
+        return written;
+    }
+
+    /**
+     * @return validator and size reported for {@code Range: bytes=0-0}, or {@code null} if the server does
+     *         not serve ranges.
+     */
+    private Validator probe() throws IOException {
+        Request request = new Request.Builder()
+                .url(downloadUrl)
+                .get()
+                .header("Range", "bytes=0-0")
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() != 206) {
+                return null;
+            }
+            long[] range = contentRange(response.header("Content-Range"));
+            return range == null ? null : Validator.of(response, range[2]);
+        }
+    }
+
+    /**
+     * Fetches {@code size} bytes as parallel ranges and joins them into {@code partFile}.
+     */
+    private long downloadSegments(Path partFile, Validator document) throws IOException {
+        long size = document.length();
+        long segmentSize = (size + segments - 1) / segments;
+        List<Path> files = new ArrayList<>();
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+        List<long[]> ranges = new ArrayList<>();
+        for (long start = 0; start < size; start += segmentSize) {
+            long end = Math.min(size, start + segmentSize) - 1;
+            ranges.add(new long[]{start, end});
+            files.add(target.resolveSibling(target.getFileName() + ".part-" + start + "-" + end));
+        }
+        // Only bytes of the same range of the same document are resumed; record the split and the
+        // document before any segment is written
+        boolean sameDocument = document.canResume() && document.equals(Validator.read(validatorFile(target)));
+        discardSegments(sameDocument ? files : List.of());
+        document.write(validatorFile(target));
+        List<String> names = new ArrayList<>();
+        for (Path file : files) {
+            names.add(file.getFileName().toString());
+        }
+        Files.write(segmentList(target), names);
+        for (int i = 0; i < files.size(); i++) {
+            fetches.add(fetchSegment(files.get(i), ranges.get(i)[0], ranges.get(i)[1], document));
+        }
+        logger.info(String.format("Downloading %s (%d bytes) in %d segments", target, size, files.size()));
+        try {
+            CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new IOException("Segmented download of " + target + " failed", e.getCause());
+        }
+
+        // Kernel-side copy of the finished segments into one file
+        try (FileChannel out = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Path file : files) {
+                try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long position = 0;
+                    long length = in.size();
+                    while (position < length) {
+                        position += in.transferTo(position, length - position, out);
+                    }
+                }
+            }
+            out.force(false);
+            if (out.size() != size) {
+                throw new IOException(String.format("Joined download has %d of %d bytes", out.size(), size));
+            }
+        }
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(segmentList(target));
+        return size;
+    }
+
+    /**
+     * Deletes the segment files listed in {@code <target>.segments} that are not in {@code keep}, and the list.
+     */
+    private void discardSegments(List<Path> keep) throws IOException {
+        Path list = segmentList(target);
+        if (!Files.exists(list)) {
+            return;
+        }
+        for (String name : Files.readAllLines(list)) {
+            Path file = target.resolveSibling(name);
+            if (!name.isEmpty() && !keep.contains(file) && Files.deleteIfExists(file)) {
+                logger.info(String.format("Deleted segment %s of an earlier split", file));
+            }
+        }
+        Files.delete(list);
+    }
+
+    /**
+     * Fetches bytes {@code start..end} of {@code document} into {@code file}, skipping the bytes it already holds.
+     */
+    private CompletableFuture<Void> fetchSegment(Path file, long start, long end, Validator document) throws IOException {
+        long length = end - start + 1;
+        long have = Files.exists(file) ? Files.size(file) : 0;
+        if (have > length) {
+            Files.delete(file);
+            have = 0;
+        }
+        if (have == length) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long from = start + have;
+        boolean append = have > 0;
+        Request.Builder builder = new Request.Builder()
+                .url(downloadUrl)
+                .get()
+                .header("Range", "bytes=" + from + "-" + end);
+        if (document.canResume()) {
+            builder.header("If-Range", document.value());
+        }
+        Request request = builder.build();
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    long[] range = contentRange(response.header("Content-Range"));
+                    if (response.code() != 206 || range == null || range[0] != from) {
+                        throw new IOException(String.format("Range %d-%d not served. Response code: %d",
+                                from, end, response.code()));
+                    }
+                    if (!document.equals(Validator.of(response, range[2]))) {
+                        throw new IOException(String.format("Range %d-%d served from a changed document", from, end));
+                    }
+                    long written = writeBody(response.body().source(), file, append);
+                    if (from + written != end + 1) {
+                        throw new IOException(String.format("Segment %d-%d truncated after %d bytes", from, end, written));
+                    }
+                    result.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Streams {@code body} into {@code <target>.part}, checks it against the declared length and atomically
+     * renames it to {@code target}. The {@code .part} file is removed if anything fails.
+     *
+     * @return number of bytes written.
+     */
+    static long saveBody(ResponseBody body, Path target) throws IOException {
+        Path folder = target.toAbsolutePath().getParent();
+        if (folder != null) {
+            Files.createDirectories(folder);
+        }
+        Path partFile = partFile(target);
+
+        boolean complete = false;
+        try {
+            long written = writeBody(body.source(), partFile, false);
+            long expected = body.contentLength();
+            if (expected >= 0 && written != expected) {
+                throw new IOException(String.format("Download truncated: %d of %d bytes", written, expected));
+            }
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            complete = true;
+            return written;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(partFile);
+            }
+        }
+    }
+
+    /**
+     * Copies {@code source} into {@code file} in writes of up to one full buffer and forces the file to disk.
+     * The bytes received before a failure are still written, so the file can be resumed.
+     *
+     * @param append add to the end of the file instead of replacing it.
+     */
+    static long writeBody(BufferedSource source, Path file, boolean append) throws IOException {
+        ByteBuffer buffer = DirectBuffers.acquire();
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+            try {
+                // The source hands out at most one segment per read; fill the buffer before each write
+                while (source.read(buffer) != -1) {
+                    if (!buffer.hasRemaining()) {
+                        written += drain(buffer, channel);
+                    }
+                }
+            } finally {
+                written += drain(buffer, channel);
+                channel.force(false);
+            }
+        } finally {
+            DirectBuffers.release(buffer);
+        }
+        return written;
+    }
+
+    private static long drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    private static Path partFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part");
+    }
+
+    private static Path segmentList(Path target) {
+        return target.resolveSibling(target.getFileName() + ".segments");
+    }
+
+    private static Path validatorFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".validator");
+    }
+
+    /**
+     * @return {@code {first, last, total}} of a {@code Content-Range} header ({@code -1} for an unsatisfied
+     *         range), or {@code null} if it is absent or malformed.
+     */
+    static long[] contentRange(String header) {
+        if (header == null) {
+            return null;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(header.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        long total = Long.parseLong(matcher.group(3));
+        return matcher.group(1) == null
+                ? new long[]{-1, -1, total}
+                : new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), total};
+    }
+
+    /**
+     * Identity of a document: its strong {@code ETag}, or else its {@code Last-Modified}, and its total
+     * length. Stored in {@code <target>.validator} while partial files exist.
+     *
+     * @param value {@code If-Range} value, or {@code null} if the server sent no usable validator.
+     * @param length total length in bytes, or {@code -1} if unknown.
+     */
+    record Validator(String value, long length) {
+
+        static Validator of(Response response, long length) {
+            String etag = response.header("ETag");
+            return new Validator(etag != null && !etag.startsWith("W/") ? etag : response.header("Last-Modified"), length);
+        }
+
+        /**
+         * @return the validator in {@code file}, or {@code null} if there is none.
+         */
+        static Validator read(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            List<String> lines = Files.readAllLines(file);
+            try {
+                return lines.size() == 2 ? new Validator(lines.get(1), Long.parseLong(lines.get(0))) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return whether partial files of this document can be resumed.
+         */
+        boolean canResume() {
+            return value != null && length >= 0;
+        }
+
+        void write(Path file) throws IOException {
+            if (canResume()) {
+                Files.write(file, List.of(String.valueOf(length), value));
+            } else {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
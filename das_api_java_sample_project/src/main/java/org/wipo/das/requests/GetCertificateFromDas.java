@@ -6,9 +6,8 @@ import java.util.Properties;
 import okhttp3.*;
 
 import org.apache.logging.log4j.Logger;
-import org.json.JSONObject;
 import org.wipo.das.restapitest.ConfigManager;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 
@@ -19,12 +18,15 @@ import java.nio.file.Paths;
  * <p>Endpoint: {@code GET {das}/registrations/certificates}
  * <br>Headers: {@code Authorization: Bearer <token>}, {@code Content-Type: application/pdf}
  * <br>Query parameters: {@code documentKindCategory}, {@code documentNumber}, {@code documentDate}, {@code dasAccessCode}
- * <br>Behavior: writes the response bytes to {@code outputFolderPath/outputFileName}.
+ * <br>Behavior: streams the response to {@code outputFolderPath/outputFileName} through a temporary
+ * {@code .part} file that is renamed into place once complete (see {@link DownloadFileFromDas}). The PDF
+ * is never held in memory, so the heap stays the same however many certificates download at once.
  */
 public class GetCertificateFromDas {
 
     private static final Logger logger = ConfigManager.getLogger();
 
+    private final OkHttpClient client;
     private final String url;
     private final String token;
     private final String documentKindCategory;
@@ -48,6 +50,25 @@ public class GetCertificateFromDas {
     public GetCertificateFromDas(String dasEndpoint, String authorizationToken, String documentKindCategory,
             String documentNumber, String documentDate, String dasAccessCode,
             String outputFolderPath, String outputFileName) {
+        this(DasHttpClient.getShared(), dasEndpoint, authorizationToken, documentKindCategory, documentNumber, documentDate,
+                dasAccessCode, outputFolderPath, outputFileName);
+    }
+
+    /**
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param dasEndpoint Base DAS requests URL (e.g. {@code .../das-api/v1/requests}).
+     * @param authorizationToken OAuth2 bearer token.
+     * @param documentKindCategory Document kind category (e.g., {@code patent}).
+     * @param documentNumber Priority or document number.
+     * @param documentDate Document date in ISO-8601 (YYYY-MM-DD).
+     * @param dasAccessCode DAS access code linked to the registration.
+     * @param outputFolderPath Local folder to create if absent and where to save the PDF.
+     * @param outputFileName Target PDF filename.
+     */
+    public GetCertificateFromDas(OkHttpClient client, String dasEndpoint, String authorizationToken, String documentKindCategory,
+            String documentNumber, String documentDate, String dasAccessCode,
+            String outputFolderPath, String outputFileName) {
+        this.client = client;
         this.url = dasEndpoint + "/registrations/certificates";
         this.token = authorizationToken;
         this.documentKindCategory = documentKindCategory;
@@ -68,12 +89,6 @@ public class GetCertificateFromDas {
         logger.info("Downloading certificate...");
         //System.out.println(token);
 
-        OkHttpClient client = new OkHttpClient.Builder()
-        .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-        .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-        .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-        .build();
-
         HttpUrl.Builder urlBuilder = HttpUrl.parse(url).newBuilder()
                 .addQueryParameter("documentKindCategory", documentKindCategory)
                 .addQueryParameter("documentNumber", documentNumber)
@@ -88,18 +103,18 @@ public class GetCertificateFromDas {
                 .addHeader("Content-Type", "application/pdf")
                 .build();
         //System.out.println(request.toString());
-        Response response = client.newCall(request).execute();
-
-        if (response.isSuccessful()) {
-            Files.createDirectories(Paths.get(outputFolderPath));
-            Files.write(Paths.get(outputFolderPath, outputFileName), response.body().bytes());
-            logger.info("Certificate downloaded successfully.");
-            return true;
-        } else {
-            logger.error(String.format("Failed to download certificate. Response status: %d", response.code()));
-            //logger.error(String.format("Failed to download certificate. Response status: %d. Response body: %s", response.code(), response.body().string()));
-
-            return false;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                Path target = Paths.get(outputFolderPath, outputFileName);
+                long written = DownloadFileFromDas.saveBody(response.body(), target);
+                logger.info(String.format("Certificate downloaded successfully as: %s (%d bytes)", target, written));
+                return true;
+            } else {
+                logger.error(String.format("Failed to download certificate. Response status: %d", response.code()));
+                //logger.error(String.format("Failed to download certificate. Response status: %d. Response body: %s", response.code(), response.body().string()));
+
+                return false;
+            }
         }
     }
 }
@@ -6,7 +6,6 @@ import java.util.Properties;
 import okhttp3.*;
 
 import org.apache.logging.log4j.Logger;
-import org.json.JSONObject;
 import org.wipo.das.restapitest.ConfigManager;
 
 /**
@@ -29,6 +28,7 @@ public class GetFileFromDas {
 
     private static final Logger logger = ConfigManager.getLogger();
 
+    private final OkHttpClient client;
     private final String url;
     private final String token;
     private final String documentKindCategory;
@@ -48,6 +48,21 @@ public class GetFileFromDas {
     public GetFileFromDas(String dasEndpoint, String authorizationToken, String documentKindCategory,
             String documentNumber, String documentDate, String osfAckId
             ) {
+        this(DasHttpClient.getShared(), dasEndpoint, authorizationToken, documentKindCategory, documentNumber, documentDate, osfAckId);
+    }
+
+    /**
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param dasEndpoint Base DAS requests URL (e.g. {@code .../das-api/v1/requests}).
+     * @param authorizationToken OAuth2 bearer token.
+     * @param documentKindCategory Document kind category (e.g., {@code patent}).
+     * @param documentNumber Priority or document number.
+     * @param documentDate Document date in ISO-8601 (YYYY-MM-DD).
+     * @param osfAckId Acknowledgment id returned by {@code POST /retrievals}.
+     */
+    public GetFileFromDas(OkHttpClient client, String dasEndpoint, String authorizationToken, String documentKindCategory,
+            String documentNumber, String documentDate, String osfAckId) {
+        this.client = client;
         this.url = dasEndpoint + "/files/url-downloads";
         this.token = authorizationToken;
         this.documentKindCategory = documentKindCategory;
@@ -63,18 +78,26 @@ public class GetFileFromDas {
      * @throws IOException if the HTTP request fails.
      */
     public String getUrl() throws IOException {
-        logger.info("Registering retrieval request...");
+        Answer answer = requestUrl();
+        if (answer.status() >= 200 && answer.status() < 300) {
+            return answer.fileDownloadUrl();
+        }
+        logger.error(String.format("Failed to register request. Response status: %d", answer.status()));
+        logger.error(String.format("Response body: %s", answer.error()));
+        return null;
+    }
 
-        // Create a custom client with a longer timeout
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-                .build();
+    /**
+     * Requests a pre-signed download URL for the document and returns the answer of DAS as is, so that
+     * a caller can tell a document that is not available yet from a request that cannot succeed.
+     *
+     * @return the status and, on success, the {@code fileDownloadUrl}; the body otherwise.
+     * @throws IOException if the HTTP request fails.
+     */
+    public Answer requestUrl() throws IOException {
+        logger.info("Requesting the download url...");
 
-        MediaType mediaType = MediaType.parse("application/json");
-        String requestBody = String.format("{\n   \"documentKindCategory\": \"%s\",\n  \"documentNumber\": \"%s\",\n  \"documentDate\": \"%s\",\n  \"osfAckId\": \"%s\"\n}\n\n", documentKindCategory, documentNumber, documentDate, osfAckId);
-        RequestBody body = RequestBody.create(mediaType, requestBody);
+        RequestBody body = DasJson.downloadUrl(documentKindCategory, documentNumber, documentDate, osfAckId);
         Request request = new Request.Builder()
                 .url(url)
                 .method("POST", body)
@@ -82,18 +105,28 @@ public class GetFileFromDas {
                 .addHeader("Content-Type", "application/json")
                 .build();
 
-        Response response = client.newCall(request).execute();
-        String responseBody = response.body().string();
-        //logger.info(responseBody);
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return new Answer(response.code(), DasJson.field(response.body(), "fileDownloadUrl"), null);
+            }
+            return new Answer(response.code(), null, response.body().string());
+        }
+    }
+
+    /**
+     * Answer of {@code POST /files/url-downloads}.
+     *
+     * @param status HTTP status.
+     * @param fileDownloadUrl pre-signed URL, or {@code null} if the response has none.
+     * @param error body of an unsuccessful response, or {@code null}.
+     */
+    public record Answer(int status, String fileDownloadUrl, String error) {
 
-        if (response.isSuccessful()) {
-            JSONObject jsonObject = new JSONObject(responseBody);
-            String downloadUrl = jsonObject.optString("fileDownloadUrl");
-            return downloadUrl;
-        } else {
-            logger.error(String.format("Failed to register request. Response status: %d", response.code()));
-            logger.error(String.format("Response body: %s", responseBody));
-            return null;
+        /**
+         * @return whether the answer holds a download URL.
+         */
+        public boolean isReady() {
+            return fileDownloadUrl != null && !fileDownloadUrl.isEmpty();
         }
     }
 }
@@ -6,7 +6,6 @@ import java.util.Properties;
 import okhttp3.*;
 
 import org.apache.logging.log4j.Logger;
-import org.json.JSONObject;
 import org.wipo.das.restapitest.ConfigManager;
 
 /**
@@ -33,6 +32,7 @@ public class GetOsfAckId {
 
     private static final Logger logger = ConfigManager.getLogger();
 
+    private final OkHttpClient client;
     private final String url;
     private final String token;
     private final String documentCategory;
@@ -52,6 +52,21 @@ public class GetOsfAckId {
     public GetOsfAckId(String dasEndpoint, String authorizationToken, String documentCategory,
             String documentNumber, String documentDate, String dasAccessCode
             ) {
+        this(DasHttpClient.getShared(), dasEndpoint, authorizationToken, documentCategory, documentNumber, documentDate, dasAccessCode);
+    }
+
+    /**
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param dasEndpoint Base DAS requests URL (e.g. {@code .../das-api/v1/requests}).
+     * @param authorizationToken OAuth2 bearer token.
+     * @param documentCategory Document kind category (e.g., {@code patent}).
+     * @param documentNumber Priority or document number.
+     * @param documentDate Document date in ISO-8601 (YYYY-MM-DD).
+     * @param dasAccessCode DAS access code.
+     */
+    public GetOsfAckId(OkHttpClient client, String dasEndpoint, String authorizationToken, String documentCategory,
+            String documentNumber, String documentDate, String dasAccessCode) {
+        this.client = client;
         this.url = dasEndpoint + "/retrievals";
         this.token = authorizationToken;
         this.documentCategory = documentCategory;
@@ -69,16 +84,7 @@ public class GetOsfAckId {
     public String getAck() throws IOException {
         logger.info("Registering retrieval request...");
 
-        // Create a custom client with a longer timeout
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-                .build();
-
-        MediaType mediaType = MediaType.parse("application/json");
-        String requestBody = String.format("{\n  \"operationCategory\": \"retrieval\",\n  \"documentKindCategory\": \"%s\",\n  \"documentNumber\": \"%s\",\n  \"documentDate\": \"%s\",\n  \"dasAccessCode\": \"%s\",\n  \"applicationCategory\": null,\n  \"applicationNumber\": null,\n  \"applicationFilingDate\": null\n}\n\n", documentCategory, documentNumber, documentDate, dasAccessCode);
-        RequestBody body = RequestBody.create(mediaType, requestBody);
+        RequestBody body = DasJson.retrieval(documentCategory, documentNumber, documentDate, dasAccessCode);
         Request request = new Request.Builder()
                 .url(url)
                 .method("POST", body)
@@ -86,18 +92,14 @@ public class GetOsfAckId {
                 .addHeader("Content-Type", "application/json")
                 .build();
 
-        Response response = client.newCall(request).execute();
-        String responseBody = response.body().string();
-        //logger.info(responseBody);
-
-        if (response.isSuccessful()) {
-            JSONObject jsonObject = new JSONObject(responseBody);
-            String requestAckId = jsonObject.optString("requestAckId");
-            return requestAckId;
-        } else {
-            logger.error(String.format("Failed to register request. Response status: %d", response.code()));
-            logger.error(String.format("Response body: %s", responseBody));
-            return null;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return DasJson.field(response.body(), "requestAckId");
+            } else {
+                logger.error(String.format("Failed to register request. Response status: %d", response.code()));
+                logger.error(String.format("Response body: %s", response.body().string()));
+                return null;
+            }
         }
     }
 }
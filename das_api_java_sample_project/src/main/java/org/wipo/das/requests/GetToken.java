@@ -31,9 +31,21 @@ public class GetToken {
      * @throws IOException if the HTTP call fails or the response cannot be read.
      */
     public static String getAccessToken(String jwtAssertion, String issuer, String scope) throws IOException {
-        // Generate access token
-        OkHttpClient client = new OkHttpClient().newBuilder().build();
+        return getAccessToken(DasHttpClient.getShared(), jwtAssertion, issuer, scope);
+    }
 
+    /**
+     * Performs the token request through the given shared client.
+     *
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param jwtAssertion ES256-signed client assertion JWT.
+     * @param issuer OAuth authorization server base URL (e.g. {@code https://.../oauth2}).
+     * @param scope Space-delimited scopes requested (e.g. {@code das-api/office-exchange}).
+     * @return Raw response body as JSON string containing at least {@code access_token}.
+     * @throws IOException if the HTTP call fails, the response cannot be read, or the server rejects the assertion.
+     */
+    public static String getAccessToken(OkHttpClient client, String jwtAssertion, String issuer, String scope) throws IOException {
+        // Generate access token
         MediaType mediaType = MediaType.parse("application/x-www-form-urlencoded");
         String requestBodyString = String.format("grant_type=client_credentials&scope=%s&client_assertion_type=urn:ietf:params:oauth:client-assertion-type:jwt-bearer&client_assertion=%s",
                 scope, jwtAssertion);
@@ -45,15 +57,13 @@ public class GetToken {
                 .addHeader("Content-Type", "application/x-www-form-urlencoded")
                 .build();
 
-        Response response = client.newCall(request).execute();
-        if (response.isSuccessful()) {
-            String responseBodyString = response.body().string();
-            return responseBodyString;
-        } else {
-            System.err.println("Failed to get access token");
-            System.err.println(response.body().string());
-            System.exit(1);
-            return null;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                String responseBodyString = response.body().string();
+                return responseBodyString;
+            } else {
+                throw new IOException(String.format("Failed to get access token. Response status: %d, Response body: %s", response.code(), response.body().string()));
+            }
         }
     }
 
@@ -1,7 +1,6 @@
 package org.wipo.das.requests;
 
 import okhttp3.*;
-import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.Properties;
@@ -19,6 +18,7 @@ import java.util.Properties;
  */
 public class GetUpdatedUploadUrl {
 
+    private final OkHttpClient client;
     private final String url;
     private final String token;
 
@@ -27,6 +27,16 @@ public class GetUpdatedUploadUrl {
      * @param authorizationToken OAuth2 bearer token.
      */
     public GetUpdatedUploadUrl(String baseUrl, String authorizationToken) {
+        this(DasHttpClient.getShared(), baseUrl, authorizationToken);
+    }
+
+    /**
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param baseUrl Base DAS requests URL (should resolve to {@code .../das-api/v1/requests/}).
+     * @param authorizationToken OAuth2 bearer token.
+     */
+    public GetUpdatedUploadUrl(OkHttpClient client, String baseUrl, String authorizationToken) {
+        this.client = client;
         this.url = baseUrl+"files/url-uploads";
         this.token = authorizationToken;
     }
@@ -39,18 +49,7 @@ public class GetUpdatedUploadUrl {
      * @throws IOException if the request fails or the response is not successful.
      */
     public String getUpdatedUrl(String fileId) throws IOException {
-        // Create a custom client with a longer timeout
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-                .build();
-
-        String json = new JSONObject()
-                .put("fileId", fileId)
-                .toString();
-
-        RequestBody body = RequestBody.create(json, MediaType.parse("application/json"));
+        RequestBody body = DasJson.updatedUploadUrl(fileId);
 
         Request request = new Request.Builder()
                 .url(url)
@@ -60,15 +59,16 @@ public class GetUpdatedUploadUrl {
                 .addHeader("Authorization", "Bearer " + token)
                 .build();
 
-        Response response = client.newCall(request).execute();
-        String responseBody = response.body().string();
-
-        if (response.isSuccessful()) {
-            JSONObject jsonObject = new JSONObject(responseBody);
-            String updatedUrl = jsonObject.getString("fileUploadUrl");
-            return updatedUrl;
-        } else {
-            throw new IOException(String.format("Failed to obtain updated URL. Response status: %d, Response body: %s", response.code(), responseBody));
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                String updatedUrl = DasJson.field(response.body(), "fileUploadUrl");
+                if (updatedUrl == null) {
+                    throw new IOException("The response has no fileUploadUrl");
+                }
+                return updatedUrl;
+            } else {
+                throw new IOException(String.format("Failed to obtain updated URL. Response status: %d, Response body: %s", response.code(), response.body().string()));
+            }
         }
     }
 }
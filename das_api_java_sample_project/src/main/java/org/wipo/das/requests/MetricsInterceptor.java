@@ -0,0 +1,198 @@
+package org.wipo.das.requests;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.wipo.das.metrics.DasMetrics;
+import org.wipo.das.trace.CallTrace;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Records every call of a client in {@link DasMetrics}: its duration by endpoint, method and status, the
+ * body bytes sent and received, and the 401s and redirects OkHttp followed up itself. Each call is also
+ * handed to a {@link CallTrace}, for Java Flight Recorder and the row trace.
+ *
+ * <p>Installed first by {@link DasHttpClient#create(Properties)}, so the duration includes the time a call
+ * waited for a concurrency slot and the retries made below it. A call ends when its response body is closed,
+ * which the request classes do once they have read or streamed it.
+ */
+final class MetricsInterceptor implements Interceptor {
+
+    private final DasEndpoints endpoints;
+
+    /**
+     * @param config loaded {@code config.properties}; {@code url} and {@code issuer} identify the endpoints.
+     */
+    MetricsInterceptor(Properties config) {
+        this.endpoints = new DasEndpoints(config);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String endpoint = endpoints.of(request.url());
+        String method = request.method();
+        CountingRequestBody sent = request.body() == null ? null
+                : new CountingRequestBody(request.body(), DasMetrics.sentBytes(endpoint));
+        if (sent != null) {
+            request = request.newBuilder().method(method, sent).build();
+        }
+
+        CallTrace trace = CallTrace.begin(endpoint, method, request.url().queryParameter("fileId"));
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            DasMetrics.httpCall(endpoint, method, "io_error", System.nanoTime() - start);
+            trace.end(0, CountingRequestBody.count(sent), 0);
+            throw e;
+        }
+        for (Response prior = response.priorResponse(); prior != null; prior = prior.priorResponse()) {
+            DasMetrics.retry(endpoint, String.valueOf(prior.code()));
+        }
+
+        int code = response.code();
+        String status = String.valueOf(code);
+        ResponseBody body = response.body();
+        if (body == null) {
+            DasMetrics.httpCall(endpoint, method, status, System.nanoTime() - start);
+            trace.end(code, CountingRequestBody.count(sent), 0);
+            return response;
+        }
+        return response.newBuilder()
+                .body(new CountingResponseBody(body, DasMetrics.receivedBytes(endpoint), received -> {
+                    DasMetrics.httpCall(endpoint, method, status, System.nanoTime() - start);
+                    trace.end(code, CountingRequestBody.count(sent), received);
+                }))
+                .build();
+    }
+
+    /**
+     * Counts the bytes the delegate writes, keeping its content type, length and one-shot/duplex flags.
+     */
+    private static final class CountingRequestBody extends RequestBody {
+
+        private final RequestBody delegate;
+        private final LongAdder sent;
+        private volatile long count;
+
+        CountingRequestBody(RequestBody delegate, LongAdder sent) {
+            this.delegate = delegate;
+            this.sent = sent;
+        }
+
+        /**
+         * @return bytes written by {@code body} so far, including writes of retried calls; 0 for no body.
+         */
+        static long count(CountingRequestBody body) {
+            return body == null ? 0 : body.count;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return delegate.isOneShot();
+        }
+
+        @Override
+        public boolean isDuplex() {
+            return delegate.isDuplex();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink counting = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    sent.add(byteCount);
+                    count += byteCount;
+                }
+            });
+            delegate.writeTo(counting);
+            counting.emit();
+        }
+    }
+
+    /**
+     * Counts the bytes read from the delegate and reports them once, when the body is closed.
+     */
+    private static final class CountingResponseBody extends ResponseBody {
+
+        private final ResponseBody delegate;
+        private final LongAdder received;
+        private final LongConsumer onClose;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private BufferedSource source;
+        private long count;
+
+        CountingResponseBody(ResponseBody delegate, LongAdder received, LongConsumer onClose) {
+            this.delegate = delegate;
+            this.received = received;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public synchronized BufferedSource source() {
+            if (source == null) {
+                source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long read = super.read(sink, byteCount);
+                        if (read > 0) {
+                            received.add(read);
+                            count += read;
+                        }
+                        return read;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            if (closed.compareAndSet(false, true)) {
+                                onClose.accept(count);
+                            }
+                        }
+                    }
+                });
+            }
+            return source;
+        }
+    }
+}
@@ -2,12 +2,13 @@ package org.wipo.das.requests;
 
 import okhttp3.*;
 import org.apache.logging.log4j.Logger;
-import org.json.JSONObject;
 import org.wipo.das.restapitest.ConfigManager;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
@@ -31,6 +32,9 @@ public class ObtainFileIdAndUploadUrl {
 
     private static final Logger logger = ConfigManager.getLogger();
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final OkHttpClient client;
     private final String fileReference;
     private final String fileFormatCategory;
     private final String fileChecksum;
@@ -47,6 +51,21 @@ public class ObtainFileIdAndUploadUrl {
      * @param fileChecksum SHA-256 checksum (hex) of the file to be uploaded.
      */
     public ObtainFileIdAndUploadUrl(String dasEndPoint, String authorizationToken, String fileReference, String fileFormatCategory, String fileChecksum) {
+        this(DasHttpClient.getShared(), dasEndPoint, authorizationToken, fileReference, fileFormatCategory, fileChecksum);
+    }
+
+    /**
+     * Creates a request helper that issues its call through the given shared client.
+     *
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param dasEndPoint Base DAS requests URL (e.g. {@code .../das-api/v1/requests}).
+     * @param authorizationToken OAuth2 bearer token.
+     * @param fileReference Client-defined file reference (typically derived from the filename).
+     * @param fileFormatCategory File format category (e.g., {@code pdf}).
+     * @param fileChecksum SHA-256 checksum (hex) of the file to be uploaded.
+     */
+    public ObtainFileIdAndUploadUrl(OkHttpClient client, String dasEndPoint, String authorizationToken, String fileReference, String fileFormatCategory, String fileChecksum) {
+        this.client = client;
         this.fileReference = fileReference;
         this.fileFormatCategory = fileFormatCategory;
         this.fileChecksum = fileChecksum;
@@ -65,20 +84,7 @@ public class ObtainFileIdAndUploadUrl {
     public String[] getFileIdAndUploadUrl() throws IOException {
         logger.info("Obtaining file ID and upload URL...");
         
-        // Create a custom client with a longer timeout
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-                .build();
-
-        String json = new JSONObject()
-                .put("fileReference", fileReference)
-                .put("fileFormatCategory", fileFormatCategory)
-                .put("fileChecksum", fileChecksum)
-                .toString();
-
-        RequestBody body = RequestBody.create(json, MediaType.parse("application/json"));
+        RequestBody body = DasJson.uploadUrl(fileReference, fileFormatCategory, fileChecksum);
 
         Request request = new Request.Builder()
                 .url(url)
@@ -88,28 +94,27 @@ public class ObtainFileIdAndUploadUrl {
                 .addHeader("Authorization", "Bearer " + token)
                 .build();
 
-        Response response = client.newCall(request).execute();
-        String responseBody = response.body().string();
-
-        //logger.info(responseBody);
-
-        if (response.isSuccessful()) {
-            JSONObject jsonObject = new JSONObject(responseBody);
-            String fileId = jsonObject.getString("fileId");
-            String uploadUrl = jsonObject.getString("fileUploadUrl");
-            //logger.info(String.format("File ID: %s", fileId));
-            //logger.info(String.format("Upload URL: %s", uploadUrl));
-            return new String[]{fileId, uploadUrl};
-        } else {
-            logger.error(String.format("Failed to obtain file ID and upload URL. Response status: %d", response.code()));
-            logger.error(String.format("Response body: %s", responseBody));
-            return null;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                String[] fileIdAndUrl = DasJson.fields(response.body(), "fileId", "fileUploadUrl");
+                if (fileIdAndUrl[0] == null || fileIdAndUrl[1] == null) {
+                    throw new IOException("The response has no fileId or fileUploadUrl");
+                }
+                return fileIdAndUrl;
+            } else {
+                logger.error(String.format("Failed to obtain file ID and upload URL. Response status: %d", response.code()));
+                logger.error(String.format("Response body: %s", response.body().string()));
+                return null;
+            }
         }
     }
 
     /**
      * Computes the SHA-256 checksum of the file at {@code filePath} and returns it in hex encoding.
      *
+     * <p>The file is streamed through a reused 1 MiB direct buffer, so memory use does not depend on
+     * the file size.
+     *
      * @param filePath path to the file.
      * @return lowercase hex string of the SHA-256 digest.
      * @throws NoSuchAlgorithmException if SHA-256 is unavailable.
@@ -117,13 +122,33 @@ public class ObtainFileIdAndUploadUrl {
      */
     public static String getFileChecksum(String filePath) throws NoSuchAlgorithmException, IOException {
         MessageDigest md = MessageDigest.getInstance("SHA-256");
-        md.update(Files.readAllBytes(Paths.get(filePath)));
-        byte[] digest = md.digest();
-        StringBuilder sb = new StringBuilder();
-        for (byte b : digest) {
-            sb.append(String.format("%02x", b));
+        ByteBuffer buffer = DirectBuffers.acquire();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            DirectBuffers.release(buffer);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Encodes bytes as lowercase hex without per-byte formatting.
+     *
+     * @param bytes bytes to encode.
+     * @return lowercase hex string.
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            hex[i * 2] = HEX_DIGITS[b >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[b & 0x0f];
         }
-        return sb.toString();
+        return new String(hex);
     }
 
     /**
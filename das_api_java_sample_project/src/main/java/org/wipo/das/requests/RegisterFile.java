@@ -6,13 +6,13 @@ import java.util.Properties;
 import okhttp3.*;
 
 import org.apache.logging.log4j.Logger;
-import org.json.JSONObject;
 import org.wipo.das.restapitest.ConfigManager;
 
 public class RegisterFile {
 
     private static final Logger logger = ConfigManager.getLogger();
 
+    private final OkHttpClient client;
     private final String url;
     private final String token;
     private final String documentCategory;
@@ -27,6 +27,14 @@ public class RegisterFile {
     public RegisterFile(String dasEndpoint, String authorizationToken, String documentCategory,
             String documentNumber, String documentDate, String dasAccessCode,
             String applicationCategory, String applicationNumber, String applicationFilingDate, String fileId) {
+        this(DasHttpClient.getShared(), dasEndpoint, authorizationToken, documentCategory, documentNumber, documentDate,
+                dasAccessCode, applicationCategory, applicationNumber, applicationFilingDate, fileId);
+    }
+
+    public RegisterFile(OkHttpClient client, String dasEndpoint, String authorizationToken, String documentCategory,
+            String documentNumber, String documentDate, String dasAccessCode,
+            String applicationCategory, String applicationNumber, String applicationFilingDate, String fileId) {
+        this.client = client;
         this.url = dasEndpoint + "/registrations";
         this.token = authorizationToken;
         this.documentCategory = documentCategory;
@@ -42,16 +50,8 @@ public class RegisterFile {
     public String registerFile() throws IOException {
         logger.info("Registering file...");
 
-        // Create a custom client with a longer timeout
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-                .build();
-
-        MediaType mediaType = MediaType.parse("application/json");
-        String requestBody = String.format("{\n  \"operationCategory\": \"registration\",\n  \"documentKindCategory\": \"%s\",\n  \"documentNumber\": \"%s\",\n  \"documentDate\": \"%s\",\n  \"dasAccessCode\": \"%s\",\n  \"applicationCategory\": \"%s\",\n  \"applicationNumber\": \"%s\",\n  \"applicationFilingDate\": \"%s\",\n  \"email\": null,\n  \"fileId\": \"%s\"\n}\n\n", documentCategory, documentNumber, documentDate, dasAccessCode, applicationCategory, applicationNumber, applicationFilingDate,fileId);
-        RequestBody body = RequestBody.create(mediaType, requestBody);
+        RequestBody body = DasJson.registration(documentCategory, documentNumber, documentDate, dasAccessCode,
+                applicationCategory, applicationNumber, applicationFilingDate, fileId);
         Request request = new Request.Builder()
                 .url(url)
                 .method("POST", body)
@@ -59,18 +59,16 @@ public class RegisterFile {
                 .addHeader("Content-Type", "application/json")
                 .build();
 
-        Response response = client.newCall(request).execute();
-        String responseBody = response.body().string();
-        logger.info(responseBody);
-
-        if (response.isSuccessful()) {
-            JSONObject jsonObject = new JSONObject(responseBody);
-            String requestAckId = jsonObject.optString("requestAckId");
-            return requestAckId;
-        } else {
-            logger.error(String.format("Failed to register file. Response status: %d", response.code()));
-            logger.error(String.format("Response body: %s", responseBody));
-            return null;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                String requestAckId = DasJson.field(response.body(), "requestAckId");
+                logger.debug(String.format("Registered fileId %s with requestAckId %s", fileId, requestAckId));
+                return requestAckId;
+            } else {
+                logger.error(String.format("Failed to register file. Response status: %d", response.code()));
+                logger.error(String.format("Response body: %s", response.body().string()));
+                return null;
+            }
         }
     }
 }
@@ -1,17 +1,13 @@
 package org.wipo.das.requests;
 
 import okhttp3.*;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
 import org.apache.logging.log4j.Logger;
-import org.json.JSONObject;
 import org.wipo.das.restapitest.ConfigManager;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Properties;
-
 import java.io.File;
 import java.io.IOException;
 
@@ -20,15 +16,25 @@ import java.io.IOException;
  *
  * <p>Endpoint: {@code PUT {fileUploadUrl}} (pre-signed)
  * <br>Headers: {@code Content-Type: application/pdf}
- * <br>Body: raw PDF bytes
+ * <br>Body: raw PDF bytes, streamed from disk in 64 KiB chunks
  * <br>Auth: Not required; the URL is pre-signed.
+ *
+ * <p>Instances are immutable, so several uploads can run concurrently. Concurrent uploads that share an
+ * {@link UploadGovernor} are held to its in-flight-bytes cap and bandwidth limit. An optional
+ * {@link ProgressListener} is told after every chunk sent.
  */
 public class UploadFileToDas {
 
     private static final Logger logger = ConfigManager.getLogger();
 
-    private static String uploadUrl;
-    private static String filePath;
+    private static final MediaType PDF = MediaType.parse("application/pdf");
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final OkHttpClient client;
+    private final UploadGovernor governor;
+    private final String uploadUrl;
+    private final String filePath;
+    private final ProgressListener listener;
 
     /**
      * Creates an uploader bound to a specific pre-signed URL and local file path.
@@ -37,39 +43,126 @@ public class UploadFileToDas {
      * @param filePath local path to the PDF file to upload.
      */
     public UploadFileToDas(String uploadUrl, String filePath)  {
+        this(DasHttpClient.getShared(), uploadUrl, filePath);
+    }
+
+    /**
+     * Creates an uploader that sends the PUT through the given shared client.
+     *
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param uploadUrl pre-signed URL from DAS for file upload.
+     * @param filePath local path to the PDF file to upload.
+     */
+    public UploadFileToDas(OkHttpClient client, String uploadUrl, String filePath)  {
+        this(client, UploadGovernor.UNLIMITED, uploadUrl, filePath, null);
+    }
+
+    /**
+     * Creates an uploader whose transfer is governed by limits shared with other uploads.
+     *
+     * @param client shared transport (see {@link DasHttpClient}).
+     * @param governor in-flight-bytes and bandwidth limits shared by concurrent uploads.
+     * @param uploadUrl pre-signed URL from DAS for file upload.
+     * @param filePath local path to the PDF file to upload.
+     * @param listener told about progress after every chunk, or {@code null}.
+     */
+    public UploadFileToDas(OkHttpClient client, UploadGovernor governor, String uploadUrl, String filePath,
+            ProgressListener listener) {
+        this.client = client;
+        this.governor = governor;
         this.uploadUrl = uploadUrl;
         this.filePath = filePath;
+        this.listener = listener;
     }
 
     /**
-     * Executes the HTTP PUT to upload the file.
+     * Executes the HTTP PUT to upload the file, once the governor lets its bytes in flight.
      *
      * @return HTTP status code from the upload request (200 indicates success).
      * @throws IOException if the upload fails or the file cannot be read.
      */
-    public static Integer uploadMyFile() throws IOException {
+    public Integer uploadMyFile() throws IOException {
+        File file = new File(filePath);
+        int permits = governor.acquire(file.length());
+        try {
+            logger.info("uploading file...");
+
+            Request request = new Request.Builder()
+                    .url(uploadUrl)
+                    .method("PUT", new GovernedFileBody(file, governor, listener))
+                    .addHeader("Content-Type", "application/pdf")
+                    .build();
+
+            try (Response response = client.newCall(request).execute()) {
+                if (response.isSuccessful()) {
+                    return response.code();
+                } else {
+                    logger.error("Failed to upload file. Response code: " + response.code());
+                    return response.code();
+                }
+            }
+        } finally {
+            governor.release(permits);
+        }
+    }
+
+    /**
+     * Receives the progress of one upload.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Called on the uploading thread after each chunk is handed to the connection. A retried request
+         * starts again from zero.
+         *
+         * @param bytesSent bytes of the file sent so far.
+         * @param totalBytes size of the file.
+         */
+        void onProgress(long bytesSent, long totalBytes);
+    }
 
-        logger.info("uploading file...");
-        OkHttpClient client = new OkHttpClient().newBuilder()
-                .build();
+    /**
+     * File body that is paced by the governor and reports its progress.
+     */
+    private static final class GovernedFileBody extends RequestBody {
 
-        MediaType mediaType = MediaType.parse("application/pdf");
-        RequestBody body = RequestBody.create(mediaType, new File(filePath));
-        Request request = new Request.Builder()
-                .url(uploadUrl)
-                .method("PUT", body)
-                .addHeader("Content-Type", "application/pdf")
-                .build();
+        private final File file;
+        private final UploadGovernor governor;
+        private final ProgressListener listener;
 
-        Response response = client.newCall(request).execute();
+        GovernedFileBody(File file, UploadGovernor governor, ProgressListener listener) {
+            this.file = file;
+            this.governor = governor;
+            this.listener = listener;
+        }
 
+        @Override
+        public MediaType contentType() {
+            return PDF;
+        }
 
-        if (response.isSuccessful()) {
-            return response.code();
-        } else {
-            logger.error("Failed to upload file. Response code: " + response.code());
-            return response.code();
+        @Override
+        public long contentLength() {
+            return file.length();
         }
 
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            long total = contentLength();
+            long sent = 0;
+            try (Source source = Okio.source(file)) {
+                Buffer buffer = new Buffer();
+                long read;
+                while ((read = source.read(buffer, CHUNK_BYTES)) != -1) {
+                    governor.throttle(read);
+                    sink.write(buffer, read);
+                    sent += read;
+                    if (listener != null) {
+                        listener.onProgress(sent, total);
+                    }
+                }
+            }
+        }
     }
 }
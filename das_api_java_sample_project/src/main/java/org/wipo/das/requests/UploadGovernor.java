@@ -0,0 +1,121 @@
+package org.wipo.das.requests;
+
+import java.io.InterruptedIOException;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits shared by every upload of a run: how many bytes may be in flight at once and how fast they
+ * may be sent.
+ *
+ * <p>Settings read from {@code config.properties} (both optional, {@code 0} means no limit):
+ * <ul>
+ *   <li>{@code uploadMaxInFlightBytes} – total size of the files being uploaded at the same time. A file
+ *   larger than the limit is uploaded alone.</li>
+ *   <li>{@code uploadBandwidthBytesPerSecond} – combined send rate of all uploads. The rate is enforced by a
+ *   token bucket that allows a quarter of a second of burst.</li>
+ * </ul>
+ *
+ * <p>One instance is shared by all concurrent {@link UploadFileToDas} calls.
+ */
+public final class UploadGovernor {
+
+    /**
+     * A governor that never blocks.
+     */
+    public static final UploadGovernor UNLIMITED = new UploadGovernor(0, 0);
+
+    // Semaphore permits are ints, so in-flight bytes are counted in KiB
+    private static final int PERMIT_BYTES = 1024;
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final Semaphore inFlight;
+    private final int maxPermits;
+    private final long bytesPerSecond;
+    private long nextSendNanos = System.nanoTime();
+
+    /**
+     * @param maxInFlightBytes cap on the bytes of concurrent uploads, {@code 0} for none.
+     * @param bytesPerSecond combined send rate, {@code 0} for unlimited.
+     */
+    public UploadGovernor(long maxInFlightBytes, long bytesPerSecond) {
+        this.maxPermits = maxInFlightBytes > 0
+                ? (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightBytes / PERMIT_BYTES)) : 0;
+        this.inFlight = maxPermits > 0 ? new Semaphore(maxPermits, true) : null;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param config loaded {@code config.properties}.
+     * @return a governor with the configured limits.
+     */
+    public static UploadGovernor fromConfig(Properties config) {
+        return new UploadGovernor(
+                Long.parseLong(config.getProperty("uploadMaxInFlightBytes", "0").trim()),
+                Long.parseLong(config.getProperty("uploadBandwidthBytesPerSecond", "0").trim()));
+    }
+
+    /**
+     * Waits until {@code bytes} more may be in flight.
+     *
+     * @param bytes size of the upload about to start.
+     * @return the permits taken, to hand back to {@link #release(int)}.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public int acquire(long bytes) throws InterruptedIOException {
+        if (inFlight == null) {
+            return 0;
+        }
+        int permits = (int) Math.min(maxPermits, Math.max(1, (bytes + PERMIT_BYTES - 1) / PERMIT_BYTES));
+        try {
+            inFlight.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload capacity");
+        }
+        return permits;
+    }
+
+    /**
+     * Returns permits taken by {@link #acquire(long)}.
+     */
+    public void release(int permits) {
+        if (inFlight != null && permits > 0) {
+            inFlight.release(permits);
+        }
+    }
+
+    /**
+     * @return uploads waiting for in-flight capacity.
+     */
+    public int getQueueLength() {
+        return inFlight == null ? 0 : inFlight.getQueueLength();
+    }
+
+    /**
+     * Blocks until {@code bytes} may be sent under the bandwidth limit.
+     *
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    void throttle(long bytes) throws InterruptedIOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // Unused time beyond the burst allowance is not carried forward
+            nextSendNanos = Math.max(nextSendNanos, now - BURST_NANOS) + bytes * 1_000_000_000L / bytesPerSecond;
+            waitNanos = nextSendNanos - now;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling an upload");
+            }
+        }
+    }
+}
@@ -2,17 +2,19 @@ package org.wipo.das.restapitest;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Properties;
-import java.util.Arrays;
+import java.util.function.Function;
 
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvException;
+import org.wipo.das.state.StateColumns;
+import org.wipo.das.state.StateJournal;
+import org.wipo.das.state.StateStore;
+import org.wipo.das.state.StateStores;
 
 /**
  * Centralized configuration and CSV state manager.
@@ -21,13 +23,18 @@ import com.opencsv.exceptions.CsvException;
  * <ul>
  *   <li>Loads {@code config/config.properties} (OAuth, DAS endpoint, CSV column indexes, logging)</li>
  *   <li>Configures Log4j 2 using the path provided by {@code log4jConfigPath}</li>
- *   <li>Loads a CSV file into memory and persists updates back to disk</li>
+ *   <li>Opens the manifest CSV through the configured {@link StateStore} and persists updates</li>
  * </ul>
+ *
+ * <p>With the default {@code stateStore=csv}, the CSV is streamed row by row and updates are appended to
+ * a {@link StateJournal} instead of rewriting the whole CSV for every change. With {@code stateStore=h2},
+ * rows live in an embedded indexed database and the CSV is only imported and exported. Either way the
+ * CSV is written back on {@link #close()}.
  */
-public class ConfigManager {
+public class ConfigManager implements Closeable {
 
     private Properties config;
-    private String[][] csvData;
+    private StateStore stateStore;
     private String csvPath;
 
     private static final Logger logger = LogManager.getLogger(ConfigManager.class);
@@ -37,9 +44,30 @@ public class ConfigManager {
      *
      * @param config_file_path path to {@code config.properties}.
      * @param csv_file_path path to a CSV used by the selected flow.
+     * @param columns column positions of that flow, e.g. {@code RegistrationRow.Columns::new}.
      * @throws CsvException if the CSV cannot be parsed.
      */
-    public ConfigManager(String config_file_path, String csv_file_path) throws CsvException {
+    public ConfigManager(String config_file_path, String csv_file_path,
+                         Function<Properties, ? extends StateColumns> columns) throws CsvException {
+        this(config_file_path);
+
+        // Open the manifest state
+        try {
+            stateStore = StateStores.open(config, csv_file_path, columns.apply(config));
+            csvPath = csv_file_path;
+        } catch (IOException e) {
+            logger.error("Failed to load CSV file", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Loads properties without a manifest, for a process that opens manifests later with
+     * {@link #forManifest(String, Function)}; initializes Log4j.
+     *
+     * @param config_file_path path to {@code config.properties}.
+     */
+    public ConfigManager(String config_file_path) {
         // Load configuration
         try {
             FileReader reader = new FileReader(config_file_path);
@@ -65,19 +93,25 @@ public class ConfigManager {
             logger.error("Failed to load configuration file", e);
             System.exit(1);
         }
+    }
 
-        // Load CSV file
-        try {
-            CSVReader reader = new CSVReaderBuilder(new FileReader(csv_file_path))
-                    //.withSkipLines(1)
-                    .build();
-            csvData = reader.readAll().toArray(new String[0][]);
-            reader.close();
-            csvPath = csv_file_path;
-        } catch (IOException e) {
-            logger.error("Failed to load CSV file", e);
-            System.exit(1);
-        }
+    private ConfigManager(Properties config, String csv_file_path, StateColumns columns) throws IOException {
+        this.config = config;
+        this.stateStore = StateStores.open(config, csv_file_path, columns);
+        this.csvPath = csv_file_path;
+    }
+
+    /**
+     * Opens a manifest with the configuration of this manager. The caller closes it.
+     *
+     * @param csv_file_path path to a CSV used by a flow.
+     * @param columns column positions of that flow, e.g. {@code RetrievalRow.Columns::new}.
+     * @return a manager of that manifest sharing these properties.
+     * @throws IOException if the CSV cannot be read.
+     */
+    public ConfigManager forManifest(String csv_file_path, Function<Properties, ? extends StateColumns> columns)
+            throws IOException {
+        return new ConfigManager(config, csv_file_path, columns.apply(config));
     }
 
     /**
@@ -91,7 +125,18 @@ public class ConfigManager {
      * @return entire CSV content as a 2D array (row-major), header included.
      */
     public String[][] getCsvData() {
-        return csvData;
+        try {
+            return stateStore.toArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the state of the manifest; prefer its batched queries over {@link #getCsvData()} on large manifests.
+     */
+    public StateStore getStateStore() {
+        return stateStore;
     }
 
     /**
@@ -102,25 +147,45 @@ public class ConfigManager {
     }
 
     /**
-     * Updates a single cell and writes the whole CSV back to disk.
+     * Updates a single cell and persists it through the state store.
      *
      * @param row zero-based row index (including header row at index 0).
      * @param column zero-based column index.
      * @param value new value to persist.
      */
-    public void updateCsvData(int row, int column, String value) {
-        csvData[row][column] = value;
-        // Update CSV file
+    public synchronized void updateCsvData(int row, int column, String value) {
+        updateCsvRow(row, new int[]{column}, new String[]{value});
+    }
+
+    /**
+     * Updates several cells of one row and persists them as a single change.
+     *
+     * <p>Updates are serialized, so concurrent workers can persist their rows safely.
+     *
+     * @param row zero-based row index (including header row at index 0).
+     * @param columns zero-based column indexes.
+     * @param values new values, one per entry in {@code columns}.
+     */
+    public synchronized void updateCsvRow(int row, int[] columns, String[] values) {
         try {
-            CSVWriter writer = new CSVWriter(new FileWriter(csvPath));
-            // writer.writeNext(new String[] { "file_reference", "file_location", "application_number",
-            //         "application_date", "priority_number", "priority_date", "document_category",
-            //         "application_category", "das_code", "file_id", "registered","ack_id" });
-            writer.writeAll(Arrays.asList(csvData));
-            writer.close();
+            stateStore.update(row, columns, values);
         } catch (IOException e) {
-            logger.error("Failed to update CSV file", e);
-            System.exit(1);
+            throw new UncheckedIOException("Failed to persist the update of row " + row, e);
+        }
+    }
+
+    /**
+     * Writes the state back to the CSV and closes the state store. Safe to call more than once.
+     */
+    @Override
+    public synchronized void close() {
+        if (stateStore == null) {
+            return;
+        }
+        try {
+            stateStore.close();
+        } catch (IOException e) {
+            logger.error("Failed to write the state back to " + csvPath, e);
         }
     }
 
@@ -0,0 +1,111 @@
+package org.wipo.das.restapitest;
+
+import okhttp3.OkHttpClient;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.assertion.AccessTokenProvider;
+import org.wipo.das.metrics.MetricsExporter;
+import org.wipo.das.requests.DasHttpClient;
+import org.wipo.das.trace.TraceExporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * What every flow needs before its engine runs, shared by the flow mains and the service:
+ * <ul>
+ *   <li>one pooled transport, shared by every request</li>
+ *   <li>the metrics file, {@code /metrics} endpoint and end-of-run summary, as configured</li>
+ *   <li>optionally the per-row Chrome trace if {@code traceFile} is set; JFR events are emitted whenever a
+ *       recording is running</li>
+ *   <li>a cached access token, refreshed before expiry; 401 responses are retried once with a fresh token</li>
+ * </ul>
+ * The runtime owns these and the {@link ConfigManager} it was given, and closes them all in
+ * {@link #close()}, which writes the manifest back to its CSV. Use it in a try-with-resources block so
+ * that happens on every exit path; a shutdown hook writes the manifest back if the JVM is stopped
+ * (SIGTERM/Ctrl-C) before.
+ */
+public final class FlowRuntime implements Closeable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final ConfigManager configManager;
+    private final MetricsExporter metrics;
+    private final TraceExporter traceExporter;
+    private final AccessTokenProvider tokenProvider;
+    private final OkHttpClient client;
+
+    /**
+     * @param configManager loaded {@code config.properties} and, for a flow main, its manifest; closed with
+     *                      this runtime.
+     * @param trace whether to write the trace for the life of this runtime; the service writes one per job.
+     */
+    public FlowRuntime(ConfigManager configManager, boolean trace) {
+        this.configManager = configManager;
+        if (configManager.getCsvPath() != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(configManager::close, "das-state-close"));
+        }
+        try {
+            OkHttpClient httpClient = DasHttpClient.configure(configManager.getConfig());
+            metrics = MetricsExporter.start(configManager.getConfig());
+            traceExporter = trace ? TraceExporter.start(configManager.getConfig()) : null;
+            tokenProvider = new AccessTokenProvider(configManager, httpClient);
+            client = tokenProvider.authenticating(httpClient);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Fetches the first access token.
+     *
+     * @return whether a token was obtained; the error is logged if not.
+     */
+    public boolean fetchToken() {
+        logger.info("Going to retrieve the access token from the oauth server");
+        try {
+            tokenProvider.getToken();
+        } catch (IOException e) {
+            logger.error("Failed to retrieve the access token", e);
+            return false;
+        }
+        logger.info("Authorization token retrieved successfully.");
+        return true;
+    }
+
+    /**
+     * @return the manager given to the constructor.
+     */
+    public ConfigManager getConfigManager() {
+        return configManager;
+    }
+
+    /**
+     * @return the shared transport, authenticating every request with the cached token.
+     */
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return the cached access token.
+     */
+    public AccessTokenProvider getTokenProvider() {
+        return tokenProvider;
+    }
+
+    /**
+     * Ends the trace, logs the metrics summary, stops the token refresh and writes the manifest back to its
+     * CSV, in that order. Each step runs even if an earlier one fails.
+     */
+    @Override
+    @SuppressWarnings("try")
+    public void close() {
+        try (ConfigManager manifest = configManager;
+             AccessTokenProvider token = tokenProvider;
+             MetricsExporter exporter = metrics;
+             TraceExporter trace = traceExporter) {
+            // Resources close in reverse order, so the manifest is written back last
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.wipo.das.restapitest;
+
+import org.wipo.das.service.DasService;
+
+import java.util.Arrays;
+
+/**
+ * Single entry point of the jar and of the native image: runs the flow named by the first argument.
+ *
+ * <ul>
+ *   <li>{@code registration <config_file_path> <csv_file_path>} – {@link RegistrationTest}</li>
+ *   <li>{@code retrieval <config_file_path> <csv_file_path>} – {@link RetrievalTest}</li>
+ *   <li>{@code certificates <config_file_path> <csv_file_path>} – {@link CertificateDownloadTest}</li>
+ *   <li>{@code service <config_file_path>} – {@link DasService}</li>
+ * </ul>
+ * The flow classes are only loaded for the flow that runs.
+ */
+public class Main {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            usage();
+        }
+        String[] flowArgs = Arrays.copyOfRange(args, 1, args.length);
+        switch (args[0]) {
+            case "registration" -> RegistrationTest.main(flowArgs);
+            case "retrieval" -> RetrievalTest.main(flowArgs);
+            case "certificates" -> CertificateDownloadTest.main(flowArgs);
+            case "service" -> DasService.main(flowArgs);
+            default -> usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java Main registration|retrieval|certificates <config_file_path> <csv_file_path>");
+        System.err.println("       java Main service <config_file_path>");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,347 @@
+package org.wipo.das.service;
+
+import okhttp3.OkHttpClient;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.assertion.AccessTokenProvider;
+import org.wipo.das.engine.CertificateEngine;
+import org.wipo.das.engine.NamedThreadFactory;
+import org.wipo.das.engine.RegistrationEngine;
+import org.wipo.das.engine.RetrievalEngine;
+import org.wipo.das.metrics.DasMetrics;
+import org.wipo.das.restapitest.ConfigManager;
+import org.wipo.das.restapitest.FlowRuntime;
+import org.wipo.das.state.RegistrationRow;
+import org.wipo.das.state.RetrievalRow;
+import org.wipo.das.trace.TraceExporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running service that runs registration, retrieval and certificate jobs submitted through a local
+ * HTTP API (see {@link ServiceApi}).
+ *
+ * <p>The service keeps what the flow mains rebuild on every run: the JVM and its JIT, the loaded key and
+ * JCA provider, the cached access token, the pooled HTTP client with its connections and concurrency
+ * limits, and the open manifests. A job names a flow and a manifest CSV. Jobs run one after the other on
+ * a single job thread, each with the parallelism of its flow, so two jobs never touch one manifest at the
+ * same time.
+ *
+ * <p>Settings read from {@code config.properties} (all optional):
+ * <ul>
+ *   <li>{@code servicePort} – port of the API on the loopback interface (default 8090)</li>
+ *   <li>{@code serviceToken} – shared secret that submitting jobs and releasing manifests must send as
+ *       {@code Authorization: Bearer <serviceToken>}; while unset, the API only reports</li>
+ *   <li>{@code serviceReleaseManifests} – close each manifest after its job, which writes it back to its
+ *       CSV, instead of keeping it open for the next job (default false)</li>
+ *   <li>{@code serviceJobHistory} – finished jobs kept for {@code GET /jobs} (default 100)</li>
+ * </ul>
+ * An open manifest is written back to its CSV when it is released through the API or the service stops;
+ * until then its updates are in its state journal or H2 file. Edit a CSV only once it is released.
+ *
+ * <p>Start: {@code java -cp ... org.wipo.das.service.DasService config/config.properties}. The service
+ * stops on {@code SIGTERM}/Ctrl-C; the running job is interrupted and the manifests are written back.
+ */
+public class DasService implements Closeable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final ConfigManager configManager;
+    private final FlowRuntime runtime;
+    private final OkHttpClient client;
+    private final AccessTokenProvider tokenProvider;
+    private final boolean releaseManifests;
+    private final int jobHistory;
+    private final ThreadPoolExecutor jobThread;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    // Used on the job thread only
+    private final Map<Path, ConfigManager> manifests = new HashMap<>();
+    private final AtomicLong jobIds = new AtomicLong();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final long startNanos = System.nanoTime();
+    private final int port;
+    private final String token;
+    private volatile ServiceApi api;
+    private volatile Job running;
+
+    /**
+     * @param configManager loaded {@code config.properties}, without a manifest; closed with the service.
+     */
+    public DasService(ConfigManager configManager) {
+        Properties config = configManager.getConfig();
+        this.configManager = configManager;
+        this.releaseManifests = Boolean.parseBoolean(config.getProperty("serviceReleaseManifests", "false").trim());
+        this.jobHistory = Integer.parseInt(config.getProperty("serviceJobHistory", "100").trim());
+        this.port = Integer.parseInt(config.getProperty("servicePort", "8090").trim());
+        this.token = config.getProperty("serviceToken", "").trim();
+        // Transport, metrics and token for the life of the service, shared by every job
+        this.runtime = new FlowRuntime(configManager, false);
+        this.client = runtime.getClient();
+        this.tokenProvider = runtime.getTokenProvider();
+        this.jobThread = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("das-service-job"));
+        DasMetrics.queueDepth("service_jobs", () -> jobThread.getQueue().size());
+    }
+
+    /**
+     * Entry point of the service.
+     *
+     * @param args {@code [0]} path to {@code config.properties}
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java org.wipo.das.service.DasService <config_file_path>");
+            System.exit(1);
+        }
+        DasService service = new DasService(new ConfigManager(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(service::close, "das-service-stop"));
+        service.start();
+        service.awaitStop();
+    }
+
+    /**
+     * Obtains the first access token and starts serving the API.
+     *
+     * @throws IOException if the API port cannot be bound.
+     */
+    public void start() throws IOException {
+        // Without a token, jobs fetch it again; until then /health reports it missing
+        runtime.fetchToken();
+        api = new ServiceApi(this, port, token);
+        api.start();
+    }
+
+    /**
+     * @return the port the API is served on, or {@code -1} before {@link #start()}.
+     */
+    public int getPort() {
+        ServiceApi started = api;
+        return started == null ? -1 : started.getPort();
+    }
+
+    /**
+     * Waits until the service is closed.
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @param flow {@code registration}, {@code retrieval} or {@code certificates}.
+     * @param csv path of the manifest.
+     * @return the queued job.
+     * @throws IllegalArgumentException if the flow is unknown or the manifest does not exist.
+     * @throws IllegalStateException if the service is stopping.
+     */
+    public Job submit(String flow, String csv) {
+        if (!Job.isFlow(flow)) {
+            throw new IllegalArgumentException("Unknown flow " + flow + ", expected registration, retrieval or certificates");
+        }
+        if (csv == null || !Files.isRegularFile(Paths.get(csv))) {
+            throw new IllegalArgumentException("No manifest at " + csv);
+        }
+        Job job = new Job(String.valueOf(jobIds.incrementAndGet()), flow, csv);
+        synchronized (jobs) {
+            if (closed.get()) {
+                throw new IllegalStateException("The service is stopping");
+            }
+            jobs.put(job.getId(), job);
+            jobThread.execute(() -> run(job));
+        }
+        logger.info(String.format("Job %s queued: %s of %s", job.getId(), flow, csv));
+        return job;
+    }
+
+    /**
+     * Queues the release of a manifest: once the jobs queued before have run, it is written back to its CSV
+     * and closed. The next job on it opens it again.
+     *
+     * @param csv path of the manifest.
+     * @throws IllegalStateException if the service is stopping.
+     */
+    public void release(String csv) {
+        Path path = key(csv);
+        synchronized (jobs) {
+            if (closed.get()) {
+                throw new IllegalStateException("The service is stopping");
+            }
+            jobThread.execute(() -> closeManifest(path));
+        }
+    }
+
+    /**
+     * @return the job with {@code id}, or {@code null} if unknown or no longer kept.
+     */
+    public Job getJob(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    /**
+     * @return the queued, running and most recent finished jobs, oldest first.
+     */
+    public List<Job> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    /**
+     * @return state of the service for {@code GET /health}.
+     */
+    public Health getHealth() {
+        Job current = running;
+        return new Health(tokenProvider.hasValidToken() ? "ok" : "degraded", tokenProvider.hasValidToken(),
+                jobThread.getQueue().size(), current == null ? null : current.getId(),
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Stops the API and the job thread, writes the open manifests back and releases the token and metrics.
+     * Jobs that had not started are failed. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        synchronized (jobs) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+        }
+        logger.info("Stopping the service");
+        ServiceApi started = api;
+        if (started != null) {
+            started.stop();
+        }
+        jobThread.shutdownNow();
+        synchronized (jobs) {
+            for (Job job : jobs.values()) {
+                if (job.getStatus().equals("queued")) {
+                    job.failed(Map.of(), "The service stopped before the job started");
+                }
+            }
+        }
+        boolean terminated = false;
+        try {
+            terminated = jobThread.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (terminated) {
+            // The job thread is gone, so its manifests can be written back from here
+            for (ConfigManager manifest : manifests.values()) {
+                manifest.close();
+            }
+            manifests.clear();
+        } else {
+            logger.warn("The running job did not stop within 30 seconds, its manifests are not written back");
+        }
+        try {
+            runtime.close();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void run(Job job) {
+        running = job;
+        job.started();
+        logger.info(String.format("Job %s started: %s of %s", job.getId(), job.getFlow(), job.getCsv()));
+        Map<String, Long> before = DasMetrics.rows(job.getFlow());
+        Path path = key(job.getCsv());
+        try {
+            ConfigManager manifest = manifests.get(path);
+            if (manifest == null) {
+                manifest = configManager.forManifest(job.getCsv(), job.getFlow().equals(Job.RETRIEVAL)
+                        ? RetrievalRow.Columns::new : RegistrationRow.Columns::new);
+                manifests.put(path, manifest);
+            }
+            // Per-job Chrome trace if traceFile is set, overwritten by the next job
+            try (TraceExporter traceExporter = TraceExporter.start(configManager.getConfig())) {
+                switch (job.getFlow()) {
+                    case Job.REGISTRATION -> new RegistrationEngine(manifest, client, tokenProvider).run();
+                    case Job.RETRIEVAL -> new RetrievalEngine(manifest, client, tokenProvider).run();
+                    default -> new CertificateEngine(manifest, client, tokenProvider).run();
+                }
+            }
+            job.succeeded(since(before, DasMetrics.rows(job.getFlow())));
+            logger.info(String.format("Job %s succeeded: %s", job.getId(), job.getRows()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.failed(since(before, DasMetrics.rows(job.getFlow())), "Interrupted");
+        } catch (Exception e) {
+            logger.error(String.format("Job %s failed", job.getId()), e);
+            job.failed(since(before, DasMetrics.rows(job.getFlow())), e.toString());
+        } finally {
+            if (releaseManifests) {
+                closeManifest(path);
+            }
+            running = null;
+            forgetOldJobs();
+        }
+    }
+
+    private void closeManifest(Path path) {
+        ConfigManager manifest = manifests.remove(path);
+        if (manifest != null) {
+            manifest.close();
+            logger.info("Released the manifest " + path);
+        }
+    }
+
+    private void forgetOldJobs() {
+        synchronized (jobs) {
+            long finished = jobs.values().stream().filter(Job::isFinished).count();
+            Iterator<Job> oldest = jobs.values().iterator();
+            while (finished > jobHistory && oldest.hasNext()) {
+                if (oldest.next().isFinished()) {
+                    oldest.remove();
+                    finished--;
+                }
+            }
+        }
+    }
+
+    private static Path key(String csv) {
+        return Paths.get(csv).toAbsolutePath().normalize();
+    }
+
+    private static Map<String, Long> since(Map<String, Long> before, Map<String, Long> after) {
+        Map<String, Long> rows = new HashMap<>();
+        after.forEach((outcome, count) -> {
+            long delta = count - before.getOrDefault(outcome, 0L);
+            if (delta > 0) {
+                rows.put(outcome, delta);
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * Body of {@code GET /health}.
+     *
+     * @param status {@code ok}, or {@code degraded} while no valid access token is cached.
+     */
+    public record Health(String status, boolean token, int queuedJobs, String runningJob, long uptimeSeconds) {
+    }
+}
@@ -0,0 +1,113 @@
+package org.wipo.das.service;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One flow run on one manifest, submitted to the {@link DasService}.
+ *
+ * <p>A job is {@code queued} until the job thread takes it, then {@code running}, and ends as
+ * {@code succeeded} or {@code failed}. A job succeeds when its flow ran to the end, whatever the outcome of
+ * its rows; the rows are counted per outcome in {@link #getRows()}.
+ */
+public final class Job {
+
+    /** Flows a job can run. */
+    public static final String REGISTRATION = "registration";
+    public static final String RETRIEVAL = "retrieval";
+    public static final String CERTIFICATES = "certificates";
+
+    private final String id;
+    private final String flow;
+    private final String csv;
+    private final Instant submittedAt = Instant.now();
+    private volatile String status = "queued";
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile Map<String, Long> rows = Map.of();
+
+    Job(String id, String flow, String csv) {
+        this.id = id;
+        this.flow = flow;
+        this.csv = csv;
+    }
+
+    /**
+     * @return whether {@code flow} names a flow a job can run.
+     */
+    static boolean isFlow(String flow) {
+        return REGISTRATION.equals(flow) || RETRIEVAL.equals(flow) || CERTIFICATES.equals(flow);
+    }
+
+    void started() {
+        startedAt = Instant.now();
+        status = "running";
+    }
+
+    void succeeded(Map<String, Long> rows) {
+        this.rows = new TreeMap<>(rows);
+        finishedAt = Instant.now();
+        status = "succeeded";
+    }
+
+    void failed(Map<String, Long> rows, String error) {
+        this.rows = new TreeMap<>(rows);
+        this.error = error;
+        finishedAt = Instant.now();
+        status = "failed";
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFlow() {
+        return flow;
+    }
+
+    /**
+     * @return path of the manifest, as submitted.
+     */
+    public String getCsv() {
+        return csv;
+    }
+
+    /**
+     * @return {@code queued}, {@code running}, {@code succeeded} or {@code failed}.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    public String getSubmittedAt() {
+        return submittedAt.toString();
+    }
+
+    public String getStartedAt() {
+        return startedAt == null ? null : startedAt.toString();
+    }
+
+    public String getFinishedAt() {
+        return finishedAt == null ? null : finishedAt.toString();
+    }
+
+    /**
+     * @return why the job failed, or {@code null}.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return rows the job finished, by outcome (e.g. {@code registered}, {@code failed}).
+     */
+    public Map<String, Long> getRows() {
+        return rows;
+    }
+
+    boolean isFinished() {
+        return finishedAt != null;
+    }
+}
@@ -0,0 +1,250 @@
+package org.wipo.das.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.engine.NamedThreadFactory;
+import org.wipo.das.metrics.MetricsRegistry;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP API of the {@link DasService}, served on the loopback interface only.
+ *
+ * <ul>
+ *   <li>{@code POST /jobs} with {@code {"flow": "registration", "csv": "config/registration_test.csv"}} –
+ *       queues a job ({@code registration}, {@code retrieval} or {@code certificates}); answers 202 with the job</li>
+ *   <li>{@code GET /jobs}, {@code GET /jobs/<id>} – queued, running and recent jobs with their row outcomes</li>
+ *   <li>{@code DELETE /manifests?csv=<path>} – writes a manifest back to its CSV and closes it once the jobs
+ *       queued before have run</li>
+ *   <li>{@code GET /health} – token state, queued jobs and the running job; 503 while no valid token is cached</li>
+ *   <li>{@code GET /metrics} – the metrics registry in the Prometheus text format</li>
+ * </ul>
+ * Requests and responses are JSON, except {@code /metrics}. Errors are answered as {@code {"error": "..."}}.
+ *
+ * <p>Every request must name a loopback host ({@code localhost}, {@code 127.0.0.1} or {@code [::1]}) in its
+ * {@code Host} header, so a web page cannot reach the API through DNS rebinding. {@code POST /jobs} and
+ * {@code DELETE /manifests} also need {@code Authorization: Bearer <serviceToken>}, and are refused while
+ * {@code serviceToken} is not set. {@code POST /jobs} must be sent as {@code Content-Type: application/json},
+ * which a browser cannot send cross-origin without a preflight the API never answers.
+ */
+final class ServiceApi {
+
+    private static final Logger logger = ConfigManager.getLogger();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final DasService service;
+    private final int port;
+    private final byte[] authorization;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param token shared secret of the requests that change state; empty refuses them.
+     */
+    ServiceApi(DasService service, int port, String token) {
+        this.service = service;
+        this.port = port;
+        this.authorization = token.isEmpty() ? null : ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+    }
+
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/jobs", exchange -> handle(exchange, this::jobs));
+        server.createContext("/manifests", exchange -> handle(exchange, this::manifests));
+        server.createContext("/health", exchange -> handle(exchange, this::health));
+        server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+        executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("das-service-api"));
+        server.setExecutor(executor);
+        server.start();
+        logger.info(String.format("Serving the job API on http://%s:%d/",
+                server.getAddress().getHostString(), server.getAddress().getPort()));
+    }
+
+    int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void jobs(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if (path.equals("/jobs") || path.equals("/jobs/")) {
+            if (method.equals("POST")) {
+                if (!authorized(exchange)) {
+                    return;
+                }
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                if (contentType == null || !contentType.split(";")[0].trim().equalsIgnoreCase("application/json")) {
+                    respond(exchange, 415, error("Send the job as Content-Type: application/json"));
+                    return;
+                }
+                JobRequest request;
+                try (InputStream in = exchange.getRequestBody()) {
+                    request = mapper.readValue(in, JobRequest.class);
+                } catch (JsonProcessingException e) {
+                    respond(exchange, 400, error("Expected {\"flow\": ..., \"csv\": ...}: " + e.getOriginalMessage()));
+                    return;
+                }
+                if (request == null) {
+                    respond(exchange, 400, error("Expected {\"flow\": ..., \"csv\": ...}"));
+                    return;
+                }
+                Job job = service.submit(request.flow(), request.csv());
+                exchange.getResponseHeaders().set("Location", "/jobs/" + job.getId());
+                respond(exchange, 202, job);
+            } else if (method.equals("GET")) {
+                respond(exchange, 200, Map.of("jobs", service.getJobs()));
+            } else {
+                respond(exchange, 405, error("Use GET or POST"));
+            }
+            return;
+        }
+        if (!method.equals("GET")) {
+            respond(exchange, 405, error("Use GET"));
+            return;
+        }
+        Job job = service.getJob(path.substring("/jobs/".length()));
+        if (job == null) {
+            respond(exchange, 404, error("No job " + path.substring("/jobs/".length())));
+        } else {
+            respond(exchange, 200, job);
+        }
+    }
+
+    private void manifests(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("DELETE")) {
+            respond(exchange, 405, error("Use DELETE"));
+            return;
+        }
+        if (!authorized(exchange)) {
+            return;
+        }
+        String csv = queryParameter(exchange.getRequestURI().getRawQuery(), "csv");
+        if (csv == null) {
+            respond(exchange, 400, error("Missing csv parameter"));
+            return;
+        }
+        service.release(csv);
+        respond(exchange, 202, Map.of("csv", csv, "status", "queued"));
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        DasService.Health health = service.getHealth();
+        respond(exchange, health.token() ? 200 : 503, health);
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        StringBuilder text = new StringBuilder();
+        MetricsRegistry.getShared().writePrometheus(text);
+        send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers 401, or 403 while {@code serviceToken} is not set, unless the request carries the token.
+     */
+    private boolean authorized(HttpExchange exchange) throws IOException {
+        if (authorization == null) {
+            respond(exchange, 403, error("Set serviceToken to submit jobs and release manifests"));
+            return false;
+        }
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !MessageDigest.isEqual(authorization, header.trim().getBytes(StandardCharsets.UTF_8))) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            respond(exchange, 401, error("Missing or wrong service token"));
+            return false;
+        }
+        return true;
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) {
+        try (exchange) {
+            try {
+                if (!isLoopbackHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                    respond(exchange, 403, error("Host must be localhost, 127.0.0.1 or [::1]"));
+                    return;
+                }
+                handler.handle(exchange);
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, error(e.getMessage()));
+            } catch (IllegalStateException e) {
+                respond(exchange, 503, error(e.getMessage()));
+            } catch (RuntimeException e) {
+                logger.error("Failed to answer " + exchange.getRequestMethod() + " " + exchange.getRequestURI(), e);
+                respond(exchange, 500, error(e.toString()));
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to answer " + exchange.getRequestMethod() + " " + exchange.getRequestURI(), e);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        send(exchange, status, "application/json", mapper.writeValueAsBytes(body));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> error(String message) {
+        return Map.of("error", message == null ? "" : message);
+    }
+
+    private static boolean isLoopbackHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        int portSeparator = name.startsWith("[") ? name.indexOf("]:") + 1 : name.indexOf(':');
+        if (portSeparator > 0) {
+            name = name.substring(0, portSeparator);
+        }
+        return name.equals("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+    }
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return URLDecoder.decode(parameter.substring(name.length() + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Body of {@code POST /jobs}.
+     */
+    record JobRequest(String flow, String csv) {
+    }
+}
@@ -0,0 +1,203 @@
+package org.wipo.das.state;
+
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * {@link StateStore} that works on the CSV directly, streaming it with a {@link ManifestReader}.
+ *
+ * <p>Only the header is read up front. {@link #nextRows(String, int, int)} continues reading from where
+ * the previous batch stopped, so the first rows can be processed while the rest of the file is still
+ * unread. Heap use does not depend on the size of the manifest.
+ *
+ * <p>Updates are kept as {@link PendingUpdates} and laid over the rows as they are read. Unless
+ * {@code stateJournal=false}, they are also appended to a {@link StateJournal} next to the CSV
+ * ({@code <csv>.journal}) instead of rewriting the CSV for every change. The journal is replayed when
+ * the store is opened. It is folded back into the CSV every {@code stateJournalCompactRecords} updates
+ * (default 10000) and on {@link #close()}, by streaming the CSV through the pending updates into a
+ * temporary file that then replaces it atomically. A crash therefore cannot truncate the CSV.
+ */
+public class CsvStateStore implements StateStore {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final Path csvPath;
+    private final String[] header;
+    private final int statusColumn;
+    private final int priorityNumberColumn;
+    private final int priorityDateColumn;
+    private final PendingUpdates updates = new PendingUpdates();
+    private StateJournal journal;
+    private int compactRecords;
+    private ManifestReader cursor;
+
+    /**
+     * Reads the CSV header and replays the journal, if any.
+     *
+     * @param config loaded {@code config.properties}.
+     * @param csvPath manifest CSV.
+     * @param columns configured positions of the status and priority columns.
+     * @throws IOException if the CSV or its journal cannot be read.
+     * @throws IllegalArgumentException if the CSV header does not match {@code columns}.
+     */
+    public CsvStateStore(Properties config, Path csvPath, StateColumns columns) throws IOException {
+        this.csvPath = csvPath;
+        try (ManifestReader reader = new ManifestReader(csvPath)) {
+            this.header = reader.getHeader();
+        }
+        StateStores.checkColumns(csvPath, header, columns);
+        this.statusColumn = columns.getStatus();
+        this.priorityNumberColumn = columns.getPriorityNumber();
+        this.priorityDateColumn = columns.getPriorityDate();
+
+        if (Boolean.parseBoolean(config.getProperty("stateJournal", "true").trim())) {
+            openJournal(config);
+        }
+    }
+
+    private void openJournal(Properties config) throws IOException {
+        Path journalFile = Paths.get(csvPath + ".journal");
+        compactRecords = Integer.parseInt(config.getProperty("stateJournalCompactRecords", "10000").trim());
+        long syncMillis = Long.parseLong(config.getProperty("stateJournalSyncMillis", "200").trim());
+        // Apply updates a previous run did not fold into the CSV
+        int replayed = StateJournal.replay(journalFile, updates);
+        if (replayed > 0) {
+            logger.info(String.format("Replayed %d updates from %s", replayed, journalFile));
+            writeCsv();
+        }
+        journal = new StateJournal(journalFile, syncMillis);
+        journal.reset();
+    }
+
+    @Override
+    public String[] getHeader() {
+        return header;
+    }
+
+    @Override
+    public synchronized List<ManifestRow> nextRows(String status, int afterRow, int limit) throws IOException {
+        if (cursor == null || cursor.getNextIndex() > afterRow + 1) {
+            closeCursor();
+            cursor = new ManifestReader(csvPath);
+        }
+        List<ManifestRow> result = new ArrayList<>();
+        ManifestRow row = null;
+        while (result.size() < limit && (row = cursor.readNext()) != null) {
+            String[] cells = current(row);
+            if (row.getIndex() > afterRow && status.equals(StateStores.statusOf(cells, statusColumn))) {
+                result.add(new ManifestRow(row.getIndex(), cells));
+            }
+        }
+        if (row == null) {
+            closeCursor();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized List<ManifestRow> findRows(String priorityNumber, String priorityDate) throws IOException {
+        List<ManifestRow> result = new ArrayList<>();
+        try (ManifestReader reader = new ManifestReader(csvPath)) {
+            ManifestRow row;
+            while ((row = reader.readNext()) != null) {
+                String[] cells = current(row);
+                if (priorityNumber.equals(StateStores.cell(cells, priorityNumberColumn))
+                        && priorityDate.equals(StateStores.cell(cells, priorityDateColumn))) {
+                    result.add(new ManifestRow(row.getIndex(), cells));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void update(int row, int[] columns, String[] values) throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            updates.put(row, columns[i], values[i]);
+        }
+        if (journal == null) {
+            writeCsv();
+            return;
+        }
+        journal.append(row, columns, values);
+        if (journal.getRecords() >= compactRecords) {
+            compact();
+        }
+    }
+
+    /**
+     * Reads the whole manifest into memory; prefer {@link #nextRows(String, int, int)} on large manifests.
+     */
+    @Override
+    public synchronized String[][] toArray() throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(header);
+        try (ManifestReader reader = new ManifestReader(csvPath)) {
+            ManifestRow row;
+            while ((row = reader.readNext()) != null) {
+                rows.add(current(row));
+            }
+        }
+        return rows.toArray(new String[0][]);
+    }
+
+    /**
+     * Writes pending journal updates into the CSV and removes the journal.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closeCursor();
+        if (journal == null) {
+            return;
+        }
+        compact();
+        journal.close();
+        Files.deleteIfExists(journal.getJournalFile());
+        journal = null;
+    }
+
+    private String[] current(ManifestRow row) {
+        return updates.apply(row.getIndex(), row.getCells());
+    }
+
+    private void compact() throws IOException {
+        if (journal.getRecords() == 0 && updates.isEmpty()) {
+            return;
+        }
+        writeCsv();
+        journal.reset();
+    }
+
+    /**
+     * Streams the CSV through the pending updates into its replacement.
+     */
+    private void writeCsv() throws IOException {
+        // The cursor must not hold the file open while it is replaced; it is reopened on demand
+        closeCursor();
+        StateStores.replaceCsv(csvPath, writer -> {
+            try (ManifestReader reader = new ManifestReader(csvPath)) {
+                writer.writeNext(reader.getHeader());
+                ManifestRow row;
+                while ((row = reader.readNext()) != null) {
+                    writer.writeNext(current(row));
+                }
+            }
+        });
+        updates.clear();
+    }
+
+    private void closeCursor() throws IOException {
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+    }
+}
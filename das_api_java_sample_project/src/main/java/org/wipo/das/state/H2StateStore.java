@@ -0,0 +1,440 @@
+package org.wipo.das.state;
+
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link StateStore} backed by an embedded, single-file H2 database.
+ *
+ * <p>Each manifest row is one record keyed by its CSV position, with the priority number and date and
+ * the row status copied into indexed columns. Fetching the next batch of pending rows is therefore an
+ * index range scan, however many finished rows the manifest has.
+ *
+ * <p>The database lives in {@code stateStoreFile} (default {@code <csv>.h2}, H2 adds {@code .mv.db}).
+ * The CSV is imported on first use and reconciled with the stored rows on every later open: rows are
+ * matched by priority number and date rather than by position, so rows added, removed or moved in the
+ * CSV are picked up. Stored state wins over an unchanged CSV row, an edited CSV row wins over stored
+ * state. Unless {@code stateExportCsv=false}, the state is written back to the CSV on {@link #close()}.
+ */
+public class H2StateStore implements StateStore {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private static final int IMPORT_BATCH = 1000;
+    private static final int HEADER_ROW = 0;
+    private static final String HEADER = "header";
+
+    private final Path csvPath;
+    private final StateColumns columns;
+    private final boolean exportCsv;
+    private final Connection connection;
+    private final String[] header;
+    private final int statusColumn;
+    private boolean closed;
+
+    /**
+     * Opens the database and reconciles it with the CSV.
+     *
+     * @param config loaded {@code config.properties}.
+     * @param csvPath manifest CSV.
+     * @param columns configured positions of the status and priority columns.
+     * @throws IOException if the database or the CSV cannot be read.
+     * @throws IllegalArgumentException if the CSV header does not match {@code columns}.
+     */
+    public H2StateStore(Properties config, Path csvPath, StateColumns columns) throws IOException {
+        this.csvPath = csvPath;
+        this.columns = columns;
+        this.exportCsv = Boolean.parseBoolean(config.getProperty("stateExportCsv", "true").trim());
+        Path storeFile = Paths.get(config.getProperty("stateStoreFile", csvPath + ".h2").trim()).toAbsolutePath();
+        try {
+            this.connection = DriverManager.getConnection("jdbc:h2:file:" + storeFile, "sa", "");
+            createSchema();
+            syncCsv();
+            this.header = loadHeader();
+        } catch (SQLException e) {
+            throw new IOException("Failed to open state store " + storeFile, e);
+        }
+        this.statusColumn = columns.getStatus();
+    }
+
+    @Override
+    public String[] getHeader() {
+        return header;
+    }
+
+    @Override
+    public synchronized List<ManifestRow> nextRows(String status, int afterRow, int limit) throws IOException {
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT row_index, cells FROM manifest_row WHERE status = ? AND row_index > ? ORDER BY row_index LIMIT ?")) {
+            select.setString(1, status);
+            select.setInt(2, afterRow);
+            select.setInt(3, limit);
+            return readRows(select);
+        } catch (SQLException e) {
+            throw new IOException("Failed to read " + status + " rows", e);
+        }
+    }
+
+    @Override
+    public synchronized List<ManifestRow> findRows(String priorityNumber, String priorityDate) throws IOException {
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT row_index, cells FROM manifest_row WHERE priority_number = ? AND priority_date = ? ORDER BY row_index")) {
+            select.setString(1, priorityNumber);
+            select.setString(2, priorityDate);
+            return readRows(select);
+        } catch (SQLException e) {
+            throw new IOException("Failed to look up priority " + priorityNumber, e);
+        }
+    }
+
+    @Override
+    public synchronized void update(int row, int[] columns, String[] values) throws IOException {
+        try {
+            String[] cells;
+            try (PreparedStatement select = connection.prepareStatement("SELECT cells FROM manifest_row WHERE row_index = ?")) {
+                select.setInt(1, row);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    if (!resultSet.next()) {
+                        throw new IOException("Unknown manifest row " + row);
+                    }
+                    cells = RowCodec.decode(resultSet.getString(1));
+                }
+            }
+            for (int i = 0; i < columns.length; i++) {
+                // A short CSV row gains the cells it lacks
+                cells = StateStores.widen(cells, columns[i] + 1);
+                cells[columns[i]] = values[i];
+            }
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE manifest_row SET status = ?, cells = ? WHERE row_index = ?")) {
+                update.setString(1, StateStores.statusOf(cells, statusColumn));
+                update.setString(2, RowCodec.encode(cells));
+                update.setInt(3, row);
+                update.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to update manifest row " + row, e);
+        }
+    }
+
+    @Override
+    public synchronized String[][] toArray() throws IOException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT cells FROM manifest_row ORDER BY row_index");
+             ResultSet resultSet = select.executeQuery()) {
+            List<String[]> rows = new ArrayList<>();
+            while (resultSet.next()) {
+                rows.add(RowCodec.decode(resultSet.getString(1)));
+            }
+            return rows.toArray(new String[0][]);
+        } catch (SQLException e) {
+            throw new IOException("Failed to read the manifest", e);
+        }
+    }
+
+    /**
+     * Exports the state to the CSV (unless {@code stateExportCsv=false}) and closes the database.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (exportCsv) {
+                exportCsv();
+            }
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException("Failed to close the state store", e);
+        }
+    }
+
+    private void createSchema() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS manifest_row ("
+                    + "row_index INT PRIMARY KEY, "
+                    + "priority_number VARCHAR(255), "
+                    + "priority_date VARCHAR(64), "
+                    + "status VARCHAR(16) NOT NULL, "
+                    + "cells VARCHAR NOT NULL, "
+                    + "synced_cells VARCHAR)");
+            // Stores written before rows were reconciled with the CSV
+            statement.execute("ALTER TABLE manifest_row ADD COLUMN IF NOT EXISTS synced_cells VARCHAR");
+            statement.execute("CREATE INDEX IF NOT EXISTS manifest_row_status ON manifest_row(status, row_index)");
+            statement.execute("CREATE INDEX IF NOT EXISTS manifest_row_priority ON manifest_row(priority_number, priority_date)");
+            statement.execute("CREATE TABLE IF NOT EXISTS manifest_sync (id INT PRIMARY KEY, csv_checksum BIGINT NOT NULL)");
+        }
+    }
+
+    /**
+     * Reconciles the database with the CSV, which decides which rows exist and in what order.
+     *
+     * <p>CSV rows are matched with stored rows by priority number and date, the n-th CSV row of a
+     * priority with its n-th stored row, so inserted, removed or reordered rows never take over another
+     * row's state. A matched row keeps its stored cells, which may be ahead of a CSV not yet exported,
+     * unless the CSV row was edited since the store last read or wrote it ({@code synced_cells}); then
+     * the CSV row wins. Unmatched CSV rows are imported and stored rows missing from the CSV are dropped.
+     *
+     * <p>Nothing is done when the CSV still has the checksum it had when the store last read or wrote it.
+     * An empty store imports the CSV as it is.
+     */
+    private void syncCsv() throws SQLException, IOException {
+        long checksum = checksum(csvPath);
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT csv_checksum FROM manifest_sync WHERE id = 1")) {
+            if (resultSet.next() && resultSet.getLong(1) == checksum) {
+                return;
+            }
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM manifest_row")) {
+            resultSet.next();
+            if (resultSet.getInt(1) == 0) {
+                importCsv(checksum);
+                return;
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            dropStaging(statement);
+            statement.execute("CREATE TABLE csv_row (row_index INT PRIMARY KEY, priority_number VARCHAR(255) NOT NULL, "
+                    + "priority_date VARCHAR(64) NOT NULL, cells VARCHAR NOT NULL)");
+            statement.execute("CREATE TABLE stored_row AS SELECT "
+                    + "COALESCE(priority_number, '') AS priority_number, COALESCE(priority_date, '') AS priority_date, "
+                    + "ROW_NUMBER() OVER (PARTITION BY COALESCE(priority_number, ''), COALESCE(priority_date, '') "
+                    + "ORDER BY row_index) AS occurrence, status, cells, synced_cells "
+                    + "FROM manifest_row WHERE row_index <> " + HEADER_ROW);
+            statement.execute("CREATE INDEX stored_row_key ON stored_row(priority_number, priority_date, occurrence)");
+        }
+        connection.setAutoCommit(false);
+        try {
+            String[] csvHeader = stageCsv();
+            int stored;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM stored_row")) {
+                resultSet.next();
+                stored = resultSet.getInt(1);
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM manifest_row");
+            }
+            int[] counts = reconcile(csvHeader);
+            saveChecksum(checksum);
+            connection.commit();
+            int dropped = stored - counts[2];
+            if (counts[0] + counts[1] + dropped > 0) {
+                logger.info(String.format("Reconciled %s with the state store: %d rows imported, %d edited rows taken "
+                        + "from the CSV, %d rows no longer in the CSV dropped", csvPath, counts[0], counts[1], dropped));
+            }
+        } catch (SQLException | IOException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                dropStaging(statement);
+            }
+        }
+    }
+
+    /**
+     * Streams the CSV into an empty store, committing every {@value #IMPORT_BATCH} rows. An import cut
+     * short leaves no checksum, so the next open reconciles the rows it did store.
+     */
+    private void importCsv(long checksum) throws SQLException, IOException {
+        connection.setAutoCommit(false);
+        int imported = 0;
+        try (ManifestReader reader = new ManifestReader(csvPath);
+             PreparedStatement insert = connection.prepareStatement("INSERT INTO manifest_row "
+                     + "(row_index, priority_number, priority_date, status, cells, synced_cells) VALUES (?, ?, ?, ?, ?, ?)")) {
+            String[] csvHeader = reader.getHeader();
+            StateStores.checkColumns(csvPath, csvHeader, columns);
+            String encodedHeader = RowCodec.encode(csvHeader);
+            addRow(insert, HEADER_ROW, null, HEADER, encodedHeader, encodedHeader);
+            ManifestRow row;
+            while ((row = reader.readNext()) != null) {
+                String[] cells = row.getCells();
+                String encodedCells = RowCodec.encode(cells);
+                addRow(insert, row.getIndex(), cells, StateStores.statusOf(cells, columns.getStatus()), encodedCells, encodedCells);
+                if (++imported % IMPORT_BATCH == 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            saveChecksum(checksum);
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        logger.info(String.format("Imported %d rows from %s into the state store", imported, csvPath));
+    }
+
+    /**
+     * Streams the CSV into {@code csv_row}.
+     *
+     * @return the CSV header.
+     */
+    private String[] stageCsv() throws SQLException, IOException {
+        try (ManifestReader reader = new ManifestReader(csvPath);
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO csv_row (row_index, priority_number, priority_date, cells) VALUES (?, ?, ?, ?)")) {
+            String[] csvHeader = reader.getHeader();
+            StateStores.checkColumns(csvPath, csvHeader, columns);
+            int staged = 0;
+            ManifestRow row;
+            while ((row = reader.readNext()) != null) {
+                String[] cells = row.getCells();
+                String priorityNumber = StateStores.cell(cells, columns.getPriorityNumber());
+                String priorityDate = StateStores.cell(cells, columns.getPriorityDate());
+                insert.setInt(1, row.getIndex());
+                insert.setString(2, priorityNumber == null ? "" : priorityNumber);
+                insert.setString(3, priorityDate == null ? "" : priorityDate);
+                insert.setString(4, RowCodec.encode(cells));
+                insert.addBatch();
+                if (++staged % IMPORT_BATCH == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            return csvHeader;
+        }
+    }
+
+    /**
+     * Writes the header and every staged CSV row, merged with its stored row, to {@code manifest_row}.
+     *
+     * @return rows imported, edited rows taken from the CSV, and CSV rows matched with a stored row.
+     */
+    private int[] reconcile(String[] csvHeader) throws SQLException {
+        int[] counts = new int[3];
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO manifest_row "
+                     + "(row_index, priority_number, priority_date, status, cells, synced_cells) VALUES (?, ?, ?, ?, ?, ?)");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT c.row_index, c.cells, s.occurrence, s.status, "
+                     + "s.cells, s.synced_cells FROM (SELECT row_index, priority_number, priority_date, cells, "
+                     + "ROW_NUMBER() OVER (PARTITION BY priority_number, priority_date ORDER BY row_index) AS occurrence "
+                     + "FROM csv_row) c LEFT JOIN stored_row s ON s.priority_number = c.priority_number "
+                     + "AND s.priority_date = c.priority_date AND s.occurrence = c.occurrence ORDER BY c.row_index")) {
+            String encodedHeader = RowCodec.encode(csvHeader);
+            addRow(insert, HEADER_ROW, null, HEADER, encodedHeader, encodedHeader);
+            int written = 1;
+            while (resultSet.next()) {
+                int row = resultSet.getInt(1);
+                String csvCells = resultSet.getString(2);
+                boolean matched = resultSet.getObject(3) != null;
+                String syncedCells = resultSet.getString(6);
+                if (matched) {
+                    counts[2]++;
+                }
+                // Rows stored before synced_cells existed keep their state too
+                if (matched && (syncedCells == null || syncedCells.equals(csvCells))) {
+                    String storedCells = resultSet.getString(5);
+                    addRow(insert, row, RowCodec.decode(storedCells), resultSet.getString(4), storedCells, csvCells);
+                } else {
+                    counts[matched ? 1 : 0]++;
+                    String[] cells = RowCodec.decode(csvCells);
+                    addRow(insert, row, cells, StateStores.statusOf(cells, columns.getStatus()), csvCells, csvCells);
+                }
+                if (++written % IMPORT_BATCH == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        return counts;
+    }
+
+    private void addRow(PreparedStatement insert, int row, String[] cells, String status, String encodedCells,
+                        String syncedCells) throws SQLException {
+        insert.setInt(1, row);
+        insert.setString(2, cells == null ? null : StateStores.cell(cells, columns.getPriorityNumber()));
+        insert.setString(3, cells == null ? null : StateStores.cell(cells, columns.getPriorityDate()));
+        insert.setString(4, status);
+        insert.setString(5, encodedCells);
+        insert.setString(6, syncedCells);
+        insert.addBatch();
+    }
+
+    private void saveChecksum(long checksum) throws SQLException {
+        try (PreparedStatement merge = connection.prepareStatement("MERGE INTO manifest_sync KEY (id) VALUES (1, ?)")) {
+            merge.setLong(1, checksum);
+            merge.executeUpdate();
+        }
+    }
+
+    private static void dropStaging(Statement statement) throws SQLException {
+        statement.execute("DROP TABLE IF EXISTS csv_row");
+        statement.execute("DROP TABLE IF EXISTS stored_row");
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private String[] loadHeader() throws SQLException, IOException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT cells FROM manifest_row WHERE row_index = ?")) {
+            select.setInt(1, HEADER_ROW);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new IOException("Manifest " + csvPath + " has no header row");
+                }
+                return RowCodec.decode(resultSet.getString(1));
+            }
+        }
+    }
+
+    private void exportCsv() throws IOException, SQLException {
+        StateStores.replaceCsv(csvPath, writer -> {
+            try (PreparedStatement select = connection.prepareStatement("SELECT cells FROM manifest_row ORDER BY row_index");
+                 ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    writer.writeNext(RowCodec.decode(resultSet.getString(1)));
+                }
+            } catch (SQLException e) {
+                throw new IOException("Failed to export the state store to " + csvPath, e);
+            }
+        });
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE manifest_row SET synced_cells = cells WHERE synced_cells IS DISTINCT FROM cells");
+        }
+        saveChecksum(checksum(csvPath));
+    }
+
+    private static List<ManifestRow> readRows(PreparedStatement select) throws SQLException {
+        List<ManifestRow> rows = new ArrayList<>();
+        try (ResultSet resultSet = select.executeQuery()) {
+            while (resultSet.next()) {
+                rows.add(new ManifestRow(resultSet.getInt(1), RowCodec.decode(resultSet.getString(2))));
+            }
+        }
+        return rows;
+    }
+}
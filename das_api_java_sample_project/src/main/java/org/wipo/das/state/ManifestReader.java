@@ -0,0 +1,77 @@
+package org.wipo.das.state;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads a manifest CSV one row at a time.
+ *
+ * <p>Only the current row is held in memory, so reading a manifest costs the same heap whatever its
+ * size, and callers can start on the first rows before the rest of the file has been parsed.
+ */
+public class ManifestReader implements Closeable {
+
+    private final CSVReader reader;
+    private final String[] header;
+    private int nextIndex = 1;
+
+    /**
+     * Opens the manifest and reads its header row.
+     *
+     * @param csvPath manifest CSV.
+     * @throws IOException if the file cannot be opened or has no header row.
+     */
+    public ManifestReader(Path csvPath) throws IOException {
+        BufferedReader input = Files.newBufferedReader(csvPath, StandardCharsets.UTF_8);
+        this.reader = new CSVReaderBuilder(input).build();
+        this.header = readCells();
+        if (header == null) {
+            reader.close();
+            throw new IOException("Manifest " + csvPath + " has no header row");
+        }
+    }
+
+    /**
+     * @return the header row.
+     */
+    public String[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return index of the row the next call to {@link #readNext()} returns.
+     */
+    public int getNextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * @return the next data row, or {@code null} at the end of the file.
+     * @throws IOException if the file cannot be read or parsed.
+     */
+    public ManifestRow readNext() throws IOException {
+        String[] cells = readCells();
+        return cells == null ? null : new ManifestRow(nextIndex++, cells);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private String[] readCells() throws IOException {
+        try {
+            return reader.readNext();
+        } catch (CsvValidationException e) {
+            throw new IOException("Malformed manifest row " + nextIndex, e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.wipo.das.state;
+
+/**
+ * One data row of a manifest together with its position in the CSV.
+ */
+public class ManifestRow {
+
+    private final int index;
+    private final String[] cells;
+
+    /**
+     * @param index zero-based CSV row index (the header is row 0).
+     * @param cells cell values in CSV column order.
+     */
+    public ManifestRow(int index, String[] cells) {
+        this.index = index;
+        this.cells = cells;
+    }
+
+    /**
+     * @return zero-based CSV row index (the header is row 0).
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return cell values in CSV column order.
+     */
+    public String[] getCells() {
+        return cells;
+    }
+}
@@ -0,0 +1,45 @@
+package org.wipo.das.state;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cell updates not yet folded into the CSV, by row and column.
+ *
+ * <p>Holds only the rows changed since the last compaction, so its size is bounded by the number of
+ * updates between compactions rather than by the size of the manifest.
+ */
+final class PendingUpdates {
+
+    private final Map<Integer, Map<Integer, String>> rows = new HashMap<>();
+
+    void put(int row, int column, String value) {
+        rows.computeIfAbsent(row, r -> new HashMap<>()).put(column, value);
+    }
+
+    /**
+     * Overwrites the cells of {@code row} that have pending updates.
+     *
+     * @return {@code cells}, updated in place, or a widened copy if an update is past its last cell.
+     */
+    String[] apply(int row, String[] cells) {
+        Map<Integer, String> updates = rows.get(row);
+        if (updates != null) {
+            for (Map.Entry<Integer, String> update : updates.entrySet()) {
+                if (update.getKey() >= 0) {
+                    cells = StateStores.widen(cells, update.getKey() + 1);
+                    cells[update.getKey()] = update.getValue();
+                }
+            }
+        }
+        return cells;
+    }
+
+    boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    void clear() {
+        rows.clear();
+    }
+}
@@ -0,0 +1,162 @@
+package org.wipo.das.state;
+
+import java.util.Properties;
+
+/**
+ * Typed view of a registration manifest row.
+ *
+ * <p>Column positions come from {@code config.properties} through {@link Columns}. The defaults match
+ * {@code registration_test.csv}.
+ */
+public class RegistrationRow {
+
+    private final ManifestRow row;
+    private final Columns columns;
+
+    /**
+     * @param row manifest row.
+     * @param columns column positions of the registration manifest.
+     */
+    public RegistrationRow(ManifestRow row, Columns columns) {
+        this.row = row;
+        this.columns = columns;
+    }
+
+    /**
+     * @return zero-based CSV row index (the header is row 0).
+     */
+    public int getIndex() {
+        return row.getIndex();
+    }
+
+    public String getFileReference() {
+        return cell(columns.fileReference);
+    }
+
+    public String getFileLocation() {
+        return cell(columns.fileLocation);
+    }
+
+    public String getApplicationNumber() {
+        return cell(columns.applicationNumber);
+    }
+
+    public String getApplicationDate() {
+        return cell(columns.applicationDate);
+    }
+
+    public String getPriorityNumber() {
+        return cell(columns.priorityNumber);
+    }
+
+    public String getPriorityDate() {
+        return cell(columns.priorityDate);
+    }
+
+    public String getDocumentCategory() {
+        return cell(columns.documentCategory);
+    }
+
+    public String getApplicationCategory() {
+        return cell(columns.applicationCategory);
+    }
+
+    public String getDasCode() {
+        return cell(columns.dasCode);
+    }
+
+    public String getFileId() {
+        return cell(columns.fileId);
+    }
+
+    public boolean isRegistered() {
+        return cell(columns.registered).equalsIgnoreCase("true");
+    }
+
+    public String getAckId() {
+        return cell(columns.ackId);
+    }
+
+    private String cell(int column) {
+        String[] cells = row.getCells();
+        return column < cells.length ? cells[column] : "";
+    }
+
+    /**
+     * Column positions of the registration manifest, read once from {@code config.properties}.
+     *
+     * <p>Keys (defaults): {@code columnFileReference} (0), {@code columnFileLocation} (1),
+     * {@code columnApplicationNumber} (2), {@code columnApplicationDate} (3), {@code columnPriorityNumber} (4),
+     * {@code columnPriorityDate} (5), {@code columnDocumentCategory} (6), {@code columnApplicationCategory} (7),
+     * {@code columnDasCode} (8), {@code columnFileId} (9), {@code columnRegistered} (10), {@code columnAckId} (11).
+     */
+    public static class Columns implements StateColumns {
+
+        private final int fileReference;
+        private final int fileLocation;
+        private final int applicationNumber;
+        private final int applicationDate;
+        private final int priorityNumber;
+        private final int priorityDate;
+        private final int documentCategory;
+        private final int applicationCategory;
+        private final int dasCode;
+        private final int fileId;
+        private final int registered;
+        private final int ackId;
+
+        /**
+         * @param config loaded {@code config.properties}.
+         */
+        public Columns(Properties config) {
+            this.fileReference = StateStores.column(config, "columnFileReference", 0);
+            this.fileLocation = StateStores.column(config, "columnFileLocation", 1);
+            this.applicationNumber = StateStores.column(config, "columnApplicationNumber", 2);
+            this.applicationDate = StateStores.column(config, "columnApplicationDate", 3);
+            this.priorityNumber = StateStores.column(config, "columnPriorityNumber", 4);
+            this.priorityDate = StateStores.column(config, "columnPriorityDate", 5);
+            this.documentCategory = StateStores.column(config, "columnDocumentCategory", 6);
+            this.applicationCategory = StateStores.column(config, "columnApplicationCategory", 7);
+            this.dasCode = StateStores.column(config, "columnDasCode", 8);
+            this.fileId = StateStores.column(config, "columnFileId", 9);
+            this.registered = StateStores.column(config, "columnRegistered", 10);
+            this.ackId = StateStores.column(config, "columnAckId", 11);
+        }
+
+        /**
+         * @return position of the {@code file_id} column.
+         */
+        public int getFileId() {
+            return fileId;
+        }
+
+        /**
+         * @return position of the {@code registered} column.
+         */
+        public int getRegistered() {
+            return registered;
+        }
+
+        /**
+         * @return position of the {@code ack_id} column.
+         */
+        public int getAckId() {
+            return ackId;
+        }
+
+        @Override
+        public int getStatus() {
+            return registered;
+        }
+
+        @Override
+        public int getPriorityNumber() {
+            return priorityNumber;
+        }
+
+        @Override
+        public int getPriorityDate() {
+            return priorityDate;
+        }
+    }
+}
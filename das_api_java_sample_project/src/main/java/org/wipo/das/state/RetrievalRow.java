@@ -0,0 +1,118 @@
+package org.wipo.das.state;
+
+import java.util.Properties;
+
+/**
+ * Typed view of a retrieval manifest row.
+ *
+ * <p>Column positions come from {@code config.properties} through {@link Columns}. The defaults match
+ * {@code retrieval_test.csv}.
+ */
+public class RetrievalRow {
+
+    private final ManifestRow row;
+    private final Columns columns;
+
+    /**
+     * @param row manifest row.
+     * @param columns column positions of the retrieval manifest.
+     */
+    public RetrievalRow(ManifestRow row, Columns columns) {
+        this.row = row;
+        this.columns = columns;
+    }
+
+    /**
+     * @return zero-based CSV row index (the header is row 0).
+     */
+    public int getIndex() {
+        return row.getIndex();
+    }
+
+    public String getPriorityNumber() {
+        return cell(columns.priorityNumber);
+    }
+
+    public String getPriorityDate() {
+        return cell(columns.priorityDate);
+    }
+
+    public String getDocumentCategory() {
+        return cell(columns.documentCategory);
+    }
+
+    public String getDasCode() {
+        return cell(columns.dasCode);
+    }
+
+    public String getOsfAckId() {
+        return cell(columns.osfAckId);
+    }
+
+    public boolean isDownloaded() {
+        return cell(columns.downloaded).equalsIgnoreCase("true");
+    }
+
+    private String cell(int column) {
+        String[] cells = row.getCells();
+        return column < cells.length ? cells[column] : "";
+    }
+
+    /**
+     * Column positions of the retrieval manifest, read once from {@code config.properties}.
+     *
+     * <p>Keys (defaults): {@code columnRetrievalPriorityNumber} (0), {@code columnRetrievalPriorityDate} (1),
+     * {@code columnRetrievalDocumentCategory} (2), {@code columnRetrievalDasCode} (3), {@code columnOsfAckId} (4),
+     * {@code columnDownloaded} (5).
+     */
+    public static class Columns implements StateColumns {
+
+        private final int priorityNumber;
+        private final int priorityDate;
+        private final int documentCategory;
+        private final int dasCode;
+        private final int osfAckId;
+        private final int downloaded;
+
+        /**
+         * @param config loaded {@code config.properties}.
+         */
+        public Columns(Properties config) {
+            this.priorityNumber = StateStores.column(config, "columnRetrievalPriorityNumber", 0);
+            this.priorityDate = StateStores.column(config, "columnRetrievalPriorityDate", 1);
+            this.documentCategory = StateStores.column(config, "columnRetrievalDocumentCategory", 2);
+            this.dasCode = StateStores.column(config, "columnRetrievalDasCode", 3);
+            this.osfAckId = StateStores.column(config, "columnOsfAckId", 4);
+            this.downloaded = StateStores.column(config, "columnDownloaded", 5);
+        }
+
+        /**
+         * @return position of the {@code osf_ack_id} column.
+         */
+        public int getOsfAckId() {
+            return osfAckId;
+        }
+
+        /**
+         * @return position of the {@code downloaded} column.
+         */
+        public int getDownloaded() {
+            return downloaded;
+        }
+
+        @Override
+        public int getStatus() {
+            return downloaded;
+        }
+
+        @Override
+        public int getPriorityNumber() {
+            return priorityNumber;
+        }
+
+        @Override
+        public int getPriorityDate() {
+            return priorityDate;
+        }
+    }
+}
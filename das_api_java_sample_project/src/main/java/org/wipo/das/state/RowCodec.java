@@ -0,0 +1,67 @@
+package org.wipo.das.state;
+
+/**
+ * Tab-separated encoding of cell values used by the journal and the embedded store.
+ *
+ * <p>Tabs, line breaks and backslashes inside values are backslash-escaped, so an encoded row never
+ * spans more than one line.
+ */
+final class RowCodec {
+
+    private RowCodec() {
+    }
+
+    static String encode(String[] cells) {
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0) {
+                encoded.append('\t');
+            }
+            encoded.append(escape(cells[i]));
+        }
+        return encoded.toString();
+    }
+
+    static String[] decode(String encoded) {
+        String[] cells = encoded.split("\t", -1);
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = unescape(cells[i]);
+        }
+        return cells;
+    }
+
+    static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': escaped.append("\\\\"); break;
+                case '\t': escaped.append("\\t"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder plain = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                plain.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                plain.append(c);
+            }
+        }
+        return plain.toString();
+    }
+}
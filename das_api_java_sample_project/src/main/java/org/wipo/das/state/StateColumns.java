@@ -0,0 +1,27 @@
+package org.wipo.das.state;
+
+/**
+ * Positions of the manifest columns a {@link StateStore} reads itself: the status cell that makes a row
+ * {@link StateStore#DONE}, and the priority number/date that {@link StateStore#findRows(String, String)}
+ * looks up.
+ *
+ * <p>Implemented by {@link RegistrationRow.Columns} and {@link RetrievalRow.Columns}, so the store uses
+ * the same positions from {@code config.properties} as the flows.
+ */
+public interface StateColumns {
+
+    /**
+     * @return position of the {@code registered} or {@code downloaded} column.
+     */
+    int getStatus();
+
+    /**
+     * @return position of the {@code priority_number} column.
+     */
+    int getPriorityNumber();
+
+    /**
+     * @return position of the {@code priority_date} column.
+     */
+    int getPriorityDate();
+}
@@ -0,0 +1,197 @@
+package org.wipo.das.state;
+
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.engine.NamedThreadFactory;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of CSV cell updates, replayed over the CSV at startup.
+ *
+ * <p>Every update is one line, {@code row<TAB>column<TAB>value[<TAB>column<TAB>value...]}, with tabs,
+ * line breaks and backslashes in values escaped. Appending costs one {@code write} regardless of the
+ * size of the manifest. The file is {@code fsync}'d in groups every {@code syncIntervalMillis}, and
+ * on {@link #reset()} and {@link #close()}. A torn last line left by a crash is ignored on replay.
+ *
+ * <p>The owner folds the journal back into the CSV (see {@link ConfigManager}) and then calls
+ * {@link #reset()}. Replaying a record that is already in the CSV sets the same value again, so a
+ * crash between the two steps loses nothing.
+ */
+public class StateJournal implements Closeable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+
+    private final Path journalFile;
+    private final FileChannel channel;
+    private final ScheduledExecutorService syncer;
+    private int records;
+    private boolean dirty;
+
+    /**
+     * Opens (or creates) the journal.
+     *
+     * @param journalFile location of the journal, normally next to the CSV.
+     * @param syncIntervalMillis how often appended records are forced to disk.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public StateJournal(Path journalFile, long syncIntervalMillis) throws IOException {
+        this.journalFile = journalFile;
+        this.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("das-journal-sync"));
+        syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads all complete records of {@code journalFile} into {@code updates}.
+     *
+     * @param journalFile journal to read; a missing file replays nothing.
+     * @param updates receives the cell updates, later records overriding earlier ones.
+     * @return number of records replayed.
+     * @throws IOException if the journal cannot be read.
+     */
+    static int replay(Path journalFile, PendingUpdates updates) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return 0;
+        }
+        int applied = 0;
+        boolean complete = true;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) >= 0) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                if (apply(line.toString(), updates)) {
+                    applied++;
+                }
+                line.setLength(0);
+            }
+            complete = line.length() == 0;
+        }
+        if (!complete) {
+            logger.warn("Ignoring incomplete last record of " + journalFile);
+        }
+        return applied;
+    }
+
+    private static boolean apply(String line, PendingUpdates updates) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 3 || fields.length % 2 == 0) {
+            logger.warn("Skipping malformed journal record: " + line);
+            return false;
+        }
+        int row;
+        int[] columns = new int[fields.length / 2];
+        try {
+            row = Integer.parseInt(fields[0]);
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = Integer.parseInt(fields[2 * i + 1]);
+            }
+        } catch (NumberFormatException e) {
+            // E.g. a block of NULs the file system left where a crash cut a write short
+            logger.warn("Skipping malformed journal record: " + line);
+            return false;
+        }
+        if (row <= 0) {
+            logger.warn("Skipping journal record for unknown row " + row);
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            updates.put(row, columns[i], RowCodec.unescape(fields[2 * i + 2]));
+        }
+        return true;
+    }
+
+    /**
+     * Appends the update of one or more cells of a row.
+     *
+     * @param row zero-based row index (including header row at index 0).
+     * @param columns zero-based column indexes.
+     * @param values new values, one per entry in {@code columns}.
+     * @throws IOException if the record cannot be written.
+     */
+    public synchronized void append(int row, int[] columns, String[] values) throws IOException {
+        StringBuilder line = new StringBuilder().append(row);
+        for (int i = 0; i < columns.length; i++) {
+            line.append('\t').append(columns[i]).append('\t').append(RowCodec.escape(values[i]));
+        }
+        line.append('\n');
+        ByteBuffer buffer = ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        records++;
+        dirty = true;
+    }
+
+    /**
+     * @return number of records appended since the journal was opened or last reset.
+     */
+    public synchronized int getRecords() {
+        return records;
+    }
+
+    /**
+     * Empties the journal once its records have been folded into the CSV.
+     *
+     * @throws IOException if the journal cannot be truncated.
+     */
+    public synchronized void reset() throws IOException {
+        channel.truncate(0);
+        channel.force(true);
+        records = 0;
+        dirty = false;
+    }
+
+    /**
+     * Forces pending records to disk and closes the journal. The file itself is kept.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        syncer.shutdownNow();
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    /**
+     * @return location of the journal file.
+     */
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    private void syncQuietly() {
+        synchronized (this) {
+            if (!dirty || !channel.isOpen()) {
+                return;
+            }
+            dirty = false;
+        }
+        // Outside the lock, so appends are not held up by the fsync
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // closed concurrently; close() has forced the journal already
+        } catch (IOException e) {
+            logger.error("Failed to sync the state journal " + journalFile, e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.wipo.das.state;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Persistent state of a manifest: its rows and the updates the flows make to them.
+ *
+ * <p>The CSV given on the command line stays the import and export format. Each row has a status,
+ * {@link #DONE} when its {@code registered} or {@code downloaded} cell is {@code true}, otherwise
+ * {@link #PENDING}. Flows fetch their work in batches with {@link #nextRows(String, int, int)} instead
+ * of scanning the whole manifest.
+ *
+ * <p>Implementations:
+ * <ul>
+ *   <li>{@link CsvStateStore} ({@code stateStore=csv}, default) – the CSV in memory, updates journaled</li>
+ *   <li>{@link H2StateStore} ({@code stateStore=h2}) – an embedded single-file database indexed by
+ *       status and by priority number/date, for manifests too large to hold or scan in memory</li>
+ * </ul>
+ * Open one with {@link StateStores#open(java.util.Properties, String, StateColumns)}.
+ */
+public interface StateStore extends Closeable {
+
+    /** Status of a row still to be processed. */
+    String PENDING = "pending";
+
+    /** Status of a row whose {@code registered}/{@code downloaded} cell is {@code true}. */
+    String DONE = "done";
+
+    /**
+     * @return the CSV header row.
+     */
+    String[] getHeader();
+
+    /**
+     * Returns the next rows with the given status, in CSV order.
+     *
+     * @param status {@link #PENDING} or {@link #DONE}.
+     * @param afterRow only rows with a greater index are returned; {@code 0} starts at the first data row.
+     * @param limit maximum number of rows.
+     * @return up to {@code limit} rows; empty when there are no more.
+     * @throws IOException if the store cannot be read.
+     */
+    List<ManifestRow> nextRows(String status, int afterRow, int limit) throws IOException;
+
+    /**
+     * @param priorityNumber value of the {@code priority_number} column.
+     * @param priorityDate value of the {@code priority_date} column.
+     * @return all rows with that priority, in CSV order.
+     * @throws IOException if the store cannot be read.
+     */
+    List<ManifestRow> findRows(String priorityNumber, String priorityDate) throws IOException;
+
+    /**
+     * Updates several cells of one row as a single change.
+     *
+     * @param row zero-based row index (including header row at index 0).
+     * @param columns zero-based column indexes.
+     * @param values new values, one per entry in {@code columns}.
+     * @throws IOException if the update cannot be persisted.
+     */
+    void update(int row, int[] columns, String[] values) throws IOException;
+
+    /**
+     * @return the whole manifest, header included, as a 2D array (row-major).
+     * @throws IOException if the store cannot be read.
+     */
+    String[][] toArray() throws IOException;
+
+    /**
+     * Persists pending state, writes it back to the CSV and releases the store.
+     *
+     * @throws IOException if the state cannot be written.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,141 @@
+package org.wipo.das.state;
+
+import com.opencsv.CSVWriter;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Opens the configured {@link StateStore} and holds the helpers its implementations share.
+ */
+public final class StateStores {
+
+    private StateStores() {
+    }
+
+    /**
+     * Opens the store selected by {@code stateStore} ({@code csv} by default, or {@code h2}).
+     *
+     * @param config loaded {@code config.properties}.
+     * @param csvPath manifest CSV of the selected flow.
+     * @param columns configured positions of the status and priority columns of that flow.
+     * @return the opened store.
+     * @throws IOException if the CSV or the store cannot be read.
+     * @throws IllegalArgumentException if the store type is unknown or the CSV header does not match {@code columns}.
+     */
+    public static StateStore open(Properties config, String csvPath, StateColumns columns) throws IOException {
+        String type = config.getProperty("stateStore", "csv").trim();
+        if (type.equalsIgnoreCase("h2")) {
+            return new H2StateStore(config, Paths.get(csvPath), columns);
+        }
+        if (!type.equalsIgnoreCase("csv")) {
+            throw new IllegalArgumentException("Unknown stateStore '" + type + "', expected csv or h2");
+        }
+        return new CsvStateStore(config, Paths.get(csvPath), columns);
+    }
+
+    /**
+     * @return the column index configured under {@code key}, or {@code defaultValue} when unset.
+     */
+    static int column(Properties config, String key, int defaultValue) {
+        String value = config.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * @return index of the first header named like one of {@code names}, or {@code -1}.
+     */
+    private static int findColumn(String[] header, String... names) {
+        for (String name : names) {
+            for (int i = 0; i < header.length; i++) {
+                if (header[i].trim().equalsIgnoreCase(name)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the configured columns against the manifest header. Each must be inside the header, and a
+     * header that names one of them ({@code registered}/{@code downloaded}, {@code priority_number},
+     * {@code priority_date}) must name it at the configured position. Headers with other names are accepted.
+     *
+     * @throws IllegalArgumentException if the header and {@code config.properties} disagree.
+     */
+    static void checkColumns(Path csvPath, String[] header, StateColumns columns) {
+        checkColumn(csvPath, header, columns.getStatus(), "status", "registered", "downloaded");
+        checkColumn(csvPath, header, columns.getPriorityNumber(), "priority number", "priority_number");
+        checkColumn(csvPath, header, columns.getPriorityDate(), "priority date", "priority_date");
+    }
+
+    private static void checkColumn(Path csvPath, String[] header, int column, String role, String... names) {
+        if (column < 0 || column >= header.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Configured %s column %d is outside the %d columns of %s", role, column, header.length, csvPath));
+        }
+        int named = findColumn(header, names);
+        if (named >= 0 && named != column) {
+            throw new IllegalArgumentException(String.format(
+                    "%s names its %s column '%s' at position %d, but config.properties sets %d",
+                    csvPath, role, header[named].trim(), named, column));
+        }
+    }
+
+    /**
+     * @return the cell at {@code column}, or {@code null} when the row is shorter.
+     */
+    static String cell(String[] cells, int column) {
+        return column >= 0 && column < cells.length ? cells[column] : null;
+    }
+
+    /**
+     * @return {@link StateStore#DONE} if the status cell is {@code true}, otherwise {@link StateStore#PENDING}.
+     */
+    static String statusOf(String[] cells, int statusColumn) {
+        return statusColumn >= 0 && statusColumn < cells.length && cells[statusColumn].equalsIgnoreCase("true")
+                ? StateStore.DONE : StateStore.PENDING;
+    }
+
+    /**
+     * @return {@code cells} if it has at least {@code length} cells, otherwise a copy padded with empty cells.
+     */
+    static String[] widen(String[] cells, int length) {
+        if (cells.length >= length) {
+            return cells;
+        }
+        String[] wider = Arrays.copyOf(cells, length);
+        Arrays.fill(wider, cells.length, length, "");
+        return wider;
+    }
+
+    /**
+     * Writes rows to a temporary file next to {@code target}, forces it to disk and moves it over
+     * {@code target}, so readers never see a partially written CSV.
+     */
+    static void replaceCsv(Path target, CsvContent content) throws IOException {
+        Path tempFile = target.resolveSibling(target.getFileName() + ".tmp");
+        try (CSVWriter writer = new CSVWriter(new FileWriter(tempFile.toFile()))) {
+            content.writeTo(writer);
+        }
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Source of the rows written by {@link #replaceCsv(Path, CsvContent)}.
+     */
+    interface CsvContent {
+        void writeTo(CSVWriter writer) throws IOException;
+    }
+}
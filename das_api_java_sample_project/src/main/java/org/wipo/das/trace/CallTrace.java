@@ -0,0 +1,85 @@
+package org.wipo.das.trace;
+
+import jdk.jfr.EventType;
+
+/**
+ * Trace of one HTTP call: a {@link DasCallEvent} for Java Flight Recorder and, when the call was made for a
+ * row, a span in the {@link TraceExporter} of the flow.
+ *
+ * <p>Started and ended by the metrics interceptor of the shared client. When neither a recording nor a
+ * trace file with calls is active, {@link #begin} returns a shared instance that does nothing.
+ */
+public final class CallTrace {
+
+    private static final EventType callEvents = EventType.getEventType(DasCallEvent.class);
+    private static final CallTrace disabled = new CallTrace(null, null, null, null);
+
+    private final String endpoint;
+    private final String method;
+    private final RowTrace row;
+    private final String fileId;
+    private final long startNanos = System.nanoTime();
+    private final DasCallEvent event;
+
+    private CallTrace(String endpoint, String method, RowTrace row, String fileId) {
+        this.endpoint = endpoint;
+        this.method = method;
+        this.row = row;
+        this.fileId = fileId;
+        if (endpoint != null && callEvents.isEnabled()) {
+            event = new DasCallEvent();
+            event.begin();
+        } else {
+            event = null;
+        }
+    }
+
+    /**
+     * @param fileId the {@code fileId} query parameter of the call, if any.
+     * @return the trace of a call that starts now.
+     */
+    public static CallTrace begin(String endpoint, String method, String fileId) {
+        TraceExporter exporter = TraceExporter.active();
+        boolean spans = exporter != null && exporter.includesCalls();
+        if (!spans && !callEvents.isEnabled()) {
+            return disabled;
+        }
+        RowTrace row = RowTrace.current();
+        if (row == null) {
+            row = RowTrace.forFileId(fileId);
+        }
+        return new CallTrace(endpoint, method, row, fileId);
+    }
+
+    static boolean eventsEnabled() {
+        return callEvents.isEnabled();
+    }
+
+    /**
+     * @param status HTTP status code, or {@code 0} if the call failed without a response.
+     */
+    public void end(int status, long bytesSent, long bytesReceived) {
+        if (this == disabled) {
+            return;
+        }
+        long endNanos = System.nanoTime();
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.endpoint = endpoint;
+                event.method = method;
+                event.status = status;
+                event.bytesSent = bytesSent;
+                event.bytesReceived = bytesReceived;
+                event.row = row == null ? null : row.key;
+                event.fileId = row != null && row.getFileId() != null ? row.getFileId() : fileId;
+                event.ackId = row == null ? null : row.getAckId();
+                event.commit();
+            }
+        }
+        TraceExporter exporter = row == null ? null : row.getExporter();
+        if (exporter != null && exporter.includesCalls()) {
+            exporter.call(row, endpoint, method, startNanos, endNanos, status, bytesSent, bytesReceived);
+        }
+    }
+}
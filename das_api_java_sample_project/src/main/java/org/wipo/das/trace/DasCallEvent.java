@@ -0,0 +1,47 @@
+package org.wipo.das.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One HTTP call of the shared client, from sending it until its response body was closed.
+ */
+@Name("org.wipo.das.Call")
+@Label("DAS Call")
+@Category({"DAS", "HTTP"})
+@Description("An HTTP call to DAS, the OAuth server or a pre-signed storage URL")
+@StackTrace(false)
+class DasCallEvent extends jdk.jfr.Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Method")
+    String method;
+
+    @Label("Status")
+    @Description("HTTP status code, 0 if the call failed without a response")
+    int status;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    long bytesReceived;
+
+    @Label("Row")
+    @Description("Priority number and date of the manifest row the call was made for")
+    String row;
+
+    @Label("File Id")
+    String fileId;
+
+    @Label("Ack Id")
+    String ackId;
+}
@@ -0,0 +1,34 @@
+package org.wipo.das.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One manifest row, from the moment its flow picked it up until it was finished.
+ */
+@Name("org.wipo.das.Row")
+@Label("DAS Row")
+@Category({"DAS", "Pipeline"})
+@Description("A manifest row processed by a flow")
+@StackTrace(false)
+class DasRowEvent extends jdk.jfr.Event {
+
+    @Label("Flow")
+    String flow;
+
+    @Label("Row")
+    @Description("Priority number and date of the manifest row")
+    String row;
+
+    @Label("File Id")
+    String fileId;
+
+    @Label("Ack Id")
+    String ackId;
+
+    @Label("Outcome")
+    String outcome;
+}
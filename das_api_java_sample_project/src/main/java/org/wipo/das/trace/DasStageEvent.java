@@ -0,0 +1,43 @@
+package org.wipo.das.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One pipeline stage of one manifest row, e.g. hashing its file or waiting for DAS to accept the upload.
+ */
+@Name("org.wipo.das.Stage")
+@Label("DAS Row Stage")
+@Category({"DAS", "Pipeline"})
+@Description("A pipeline stage of a manifest row")
+@StackTrace(false)
+class DasStageEvent extends jdk.jfr.Event {
+
+    @Label("Flow")
+    String flow;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Row")
+    @Description("Priority number and date of the manifest row")
+    String row;
+
+    @Label("File Id")
+    String fileId;
+
+    @Label("Ack Id")
+    String ackId;
+
+    @Label("Bytes")
+    @Description("File bytes uploaded or downloaded by the stage")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    String outcome;
+}
@@ -0,0 +1,262 @@
+package org.wipo.das.trace;
+
+import jdk.jfr.EventType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trace of one manifest row through a flow: the row itself, its stages and the calls made for it.
+ *
+ * <p>Rows and stages are reported as {@link DasRowEvent}s and {@link DasStageEvent}s to Java Flight Recorder,
+ * and as spans to the {@link TraceExporter} of the flow. When neither a recording nor a trace file is active
+ * as the row starts, {@link #start} returns a shared instance that does nothing, so tracing costs one check
+ * per row.
+ *
+ * <p>A stage may end on another thread than the one it started on, e.g. the status wait of an upload. Calls
+ * are attributed to the row that {@link #enter() entered} the calling thread, or else to the row that
+ * reported the {@code fileId} the call is about.
+ */
+public final class RowTrace {
+
+    private static final EventType rowEvents = EventType.getEventType(DasRowEvent.class);
+    private static final EventType stageEvents = EventType.getEventType(DasStageEvent.class);
+    private static final ThreadLocal<RowTrace> current = new ThreadLocal<>();
+    private static final Map<String, RowTrace> byFileId = new ConcurrentHashMap<>();
+    private static final RowTrace disabled = new RowTrace(null, 0, null, null);
+
+    final String flow;
+    final int index;
+    final String key;
+    private final TraceExporter exporter;
+    private final long startNanos = System.nanoTime();
+    private final DasRowEvent event;
+    private volatile String fileId;
+    private volatile String ackId;
+
+    private RowTrace(String flow, int index, String key, TraceExporter exporter) {
+        this.flow = flow;
+        this.index = index;
+        this.key = key;
+        this.exporter = exporter;
+        if (flow != null && rowEvents.isEnabled()) {
+            event = new DasRowEvent();
+            event.begin();
+        } else {
+            event = null;
+        }
+    }
+
+    /**
+     * @param flow e.g. {@code registration}.
+     * @param index position of the row in its manifest, which keeps rows apart in the trace.
+     * @param key priority number and date of the row.
+     * @return the trace of the row, or a trace that records nothing if tracing is off.
+     */
+    public static RowTrace start(String flow, int index, String key) {
+        TraceExporter exporter = TraceExporter.active();
+        if (exporter == null && !rowEvents.isEnabled() && !stageEvents.isEnabled() && !CallTrace.eventsEnabled()) {
+            return disabled;
+        }
+        return new RowTrace(flow, index, key, exporter);
+    }
+
+    /**
+     * @return the row entered on this thread, or {@code null}.
+     */
+    static RowTrace current() {
+        return current.get();
+    }
+
+    /**
+     * @return the unfinished row that reported {@code fileId}, or {@code null}.
+     */
+    static RowTrace forFileId(String fileId) {
+        return fileId == null ? null : byFileId.get(fileId);
+    }
+
+    /**
+     * Makes this the row of the calls made on the current thread until the scope is closed.
+     */
+    public Scope enter() {
+        if (this == disabled) {
+            return Scope.NONE;
+        }
+        RowTrace previous = current.get();
+        current.set(this);
+        return new Scope(previous);
+    }
+
+    /**
+     * @param name e.g. {@code upload}.
+     * @return a started stage; end it with {@link Stage#end(String)} or close it.
+     */
+    public Stage stage(String name) {
+        return this == disabled ? Stage.NONE : new Stage(this, name);
+    }
+
+    /**
+     * Records the {@code fileId} of the row, for its events and for status calls made outside the row's threads.
+     */
+    public void fileId(String fileId) {
+        if (this != disabled && fileId != null) {
+            this.fileId = fileId;
+            byFileId.putIfAbsent(fileId, this);
+        }
+    }
+
+    /**
+     * Records the acknowledgement id of the row.
+     */
+    public void ackId(String ackId) {
+        if (this != disabled) {
+            this.ackId = ackId;
+        }
+    }
+
+    /**
+     * Ends the row.
+     *
+     * @param outcome e.g. {@code registered} or {@code failed}.
+     */
+    public void end(String outcome) {
+        if (this == disabled) {
+            return;
+        }
+        long endNanos = System.nanoTime();
+        if (fileId != null) {
+            byFileId.remove(fileId, this);
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.flow = flow;
+                event.row = key;
+                event.fileId = fileId;
+                event.ackId = ackId;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+        if (exporter != null) {
+            exporter.row(this, startNanos, endNanos, outcome);
+        }
+    }
+
+    String getFileId() {
+        return fileId;
+    }
+
+    String getAckId() {
+        return ackId;
+    }
+
+    TraceExporter getExporter() {
+        return exporter;
+    }
+
+    /**
+     * Restores the row of the thread as it was before {@link #enter()}.
+     */
+    public static final class Scope implements AutoCloseable {
+
+        private static final Scope NONE = new Scope(null);
+
+        private final RowTrace previous;
+
+        private Scope(RowTrace previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (this == NONE) {
+                return;
+            }
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    /**
+     * One stage of a row. Closing a stage that has no outcome yet ends it as {@code error}, so that
+     * try-with-resources reports stages left by an exception.
+     */
+    public static final class Stage implements AutoCloseable {
+
+        private static final Stage NONE = new Stage(null, null);
+
+        private final RowTrace row;
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private final DasStageEvent event;
+        private long bytes;
+        private String outcome;
+        private boolean ended;
+
+        private Stage(RowTrace row, String name) {
+            this.row = row;
+            this.name = name;
+            if (row != null && stageEvents.isEnabled()) {
+                event = new DasStageEvent();
+                event.begin();
+            } else {
+                event = null;
+            }
+        }
+
+        /**
+         * @param bytes file bytes the stage uploaded or downloaded.
+         * @return this stage.
+         */
+        public Stage bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the outcome the stage ends with when closed.
+         *
+         * @return this stage.
+         */
+        public Stage outcome(String outcome) {
+            this.outcome = outcome;
+            return this;
+        }
+
+        /**
+         * Ends the stage; later calls are ignored.
+         */
+        public synchronized void end(String outcome) {
+            if (row == null || ended) {
+                return;
+            }
+            ended = true;
+            long endNanos = System.nanoTime();
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.flow = row.flow;
+                    event.stage = name;
+                    event.row = row.key;
+                    event.fileId = row.fileId;
+                    event.ackId = row.ackId;
+                    event.bytes = bytes;
+                    event.outcome = outcome;
+                    event.commit();
+                }
+            }
+            if (row.exporter != null) {
+                row.exporter.stage(row, name, startNanos, endNanos, bytes, outcome);
+            }
+        }
+
+        @Override
+        public void close() {
+            end(outcome != null ? outcome : "error");
+        }
+    }
+}
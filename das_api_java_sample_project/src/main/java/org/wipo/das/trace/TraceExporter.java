@@ -0,0 +1,224 @@
+package org.wipo.das.trace;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.logging.log4j.Logger;
+import org.wipo.das.restapitest.ConfigManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Writes the rows of a flow as a Chrome trace (JSON array format), which Perfetto
+ * (<a href="https://ui.perfetto.dev">ui.perfetto.dev</a>) and {@code chrome://tracing} open.
+ *
+ * <p>Settings read from {@code config.properties} (all optional):
+ * <ul>
+ *   <li>{@code traceFile} – file the trace is written to; no trace is written without it (default none)</li>
+ *   <li>{@code traceCalls} – also write every HTTP call made for a row (default true)</li>
+ * </ul>
+ * Each flow is a process and each row a thread named after its priority number and date, holding a
+ * {@code row} span and its stage spans. The calls made for the rows are in a second process,
+ * {@code <flow> calls}, with the same threads. Spans are written as they end, so a trace of an
+ * interrupted run can still be opened.
+ *
+ * <p>{@link DasCallEvent}, {@link DasStageEvent} and {@link DasRowEvent} go to Java Flight Recorder
+ * independently of this file, whenever a recording is running.
+ */
+public final class TraceExporter implements Closeable {
+
+    private static final Logger logger = ConfigManager.getLogger();
+    private static volatile TraceExporter active;
+
+    private final long originNanos = System.nanoTime();
+    private final Path file;
+    private final boolean calls;
+    private final Map<String, Integer> processes = new HashMap<>();
+    private JsonGenerator json;
+
+    private TraceExporter(Path file, boolean calls) {
+        this.file = file;
+        this.calls = calls;
+    }
+
+    /**
+     * @param config loaded {@code config.properties}.
+     * @return an exporter writing {@code traceFile}, or one that writes nothing if it is not set; close it
+     *         when the flow has finished.
+     */
+    public static TraceExporter start(Properties config) {
+        String fileName = config.getProperty("traceFile", "").trim();
+        if (fileName.isEmpty()) {
+            return new TraceExporter(null, false);
+        }
+        TraceExporter exporter = new TraceExporter(Paths.get(fileName),
+                Boolean.parseBoolean(config.getProperty("traceCalls", "true").trim()));
+        try {
+            Path folder = exporter.file.toAbsolutePath().getParent();
+            if (folder != null) {
+                Files.createDirectories(folder);
+            }
+            exporter.json = new JsonFactory().createGenerator(Files.newBufferedWriter(exporter.file));
+            exporter.json.writeStartObject();
+            exporter.json.writeStringField("displayTimeUnit", "ms");
+            exporter.json.writeArrayFieldStart("traceEvents");
+        } catch (IOException e) {
+            logger.warn("Cannot write the trace file " + exporter.file + ", continuing without", e);
+            return new TraceExporter(null, false);
+        }
+        logger.info("Writing the row trace to " + exporter.file);
+        active = exporter;
+        return exporter;
+    }
+
+    /**
+     * Ends the trace and closes the file.
+     */
+    @Override
+    public synchronized void close() {
+        if (active == this) {
+            active = null;
+        }
+        if (json == null) {
+            return;
+        }
+        try {
+            json.writeEndArray();
+            json.writeEndObject();
+            json.close();
+        } catch (IOException e) {
+            logger.warn("Failed to finish the trace file " + file, e);
+        }
+        json = null;
+    }
+
+    /**
+     * @return the exporter of the running flow, or {@code null} if no trace is written.
+     */
+    static TraceExporter active() {
+        return active;
+    }
+
+    boolean includesCalls() {
+        return calls;
+    }
+
+    /**
+     * Writes the span of a whole row and names its threads.
+     */
+    synchronized void row(RowTrace row, long startNanos, long endNanos, String outcome) {
+        if (json == null) {
+            return;
+        }
+        try {
+            int pid = process(row.flow);
+            threadName(pid, row);
+            if (calls) {
+                threadName(process(row.flow + " calls"), row);
+            }
+            span(pid, row.index, "row", row.flow, startNanos, endNanos,
+                    "row", row.key, "fileId", row.getFileId(), "ackId", row.getAckId(), "outcome", outcome);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Writes the span of one stage of a row.
+     */
+    synchronized void stage(RowTrace row, String stage, long startNanos, long endNanos, long bytes, String outcome) {
+        if (json == null) {
+            return;
+        }
+        try {
+            span(process(row.flow), row.index, stage, "stage", startNanos, endNanos,
+                    "fileId", row.getFileId(), "ackId", row.getAckId(), "bytes", bytes, "outcome", outcome);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Writes the span of one call made for a row.
+     */
+    synchronized void call(RowTrace row, String endpoint, String method, long startNanos, long endNanos,
+                           int status, long bytesSent, long bytesReceived) {
+        if (json == null) {
+            return;
+        }
+        try {
+            span(process(row.flow + " calls"), row.index, method + " " + endpoint, "call", startNanos, endNanos,
+                    "status", status, "bytesSent", bytesSent, "bytesReceived", bytesReceived);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void span(int pid, int tid, String name, String category, long startNanos, long endNanos, Object... args)
+            throws IOException {
+        json.writeStartObject();
+        json.writeStringField("ph", "X");
+        json.writeStringField("name", name);
+        json.writeStringField("cat", category);
+        json.writeNumberField("pid", pid);
+        json.writeNumberField("tid", tid);
+        json.writeNumberField("ts", (startNanos - originNanos) / 1000);
+        json.writeNumberField("dur", Math.max(0, endNanos - startNanos) / 1000);
+        json.writeObjectFieldStart("args");
+        for (int i = 0; i < args.length; i += 2) {
+            Object value = args[i + 1];
+            if (value instanceof Number number) {
+                json.writeNumberField((String) args[i], number.longValue());
+            } else if (value != null) {
+                json.writeStringField((String) args[i], value.toString());
+            }
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private int process(String name) throws IOException {
+        Integer pid = processes.get(name);
+        if (pid == null) {
+            pid = processes.size() + 1;
+            processes.put(name, pid);
+            json.writeStartObject();
+            json.writeStringField("ph", "M");
+            json.writeStringField("name", "process_name");
+            json.writeNumberField("pid", pid);
+            json.writeObjectFieldStart("args");
+            json.writeStringField("name", name);
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        return pid;
+    }
+
+    private void threadName(int pid, RowTrace row) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("ph", "M");
+        json.writeStringField("name", "thread_name");
+        json.writeNumberField("pid", pid);
+        json.writeNumberField("tid", row.index);
+        json.writeObjectFieldStart("args");
+        json.writeStringField("name", row.key);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private void failed(IOException e) {
+        logger.warn("Failed to write the trace file " + file + ", no more spans are written", e);
+        try {
+            json.close();
+        } catch (IOException ignored) {
+            // already failing
+        }
+        json = null;
+    }
+}
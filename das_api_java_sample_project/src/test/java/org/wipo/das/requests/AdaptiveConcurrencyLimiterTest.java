@@ -0,0 +1,123 @@
+package org.wipo.das.requests;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * AIMD behaviour of the limiter, against a local server that answers with a queued list of status codes.
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private final ConcurrentLinkedQueue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+    private String url;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                requests.incrementAndGet();
+                Integer status = statuses.poll();
+                int code = status == null ? 200 : status;
+                if (code == 429) {
+                    exchange.getResponseHeaders().set("Retry-After", "0");
+                }
+                exchange.sendResponseHeaders(code, -1);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void throttledResponsesHalveTheLimit() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = limiter("8", "64", "0");
+        statuses.add(429);
+        assertEquals(429, call(limiter));
+        assertEquals(4, onlyLimit(limiter));
+
+        statuses.add(429);
+        call(limiter);
+        assertEquals(2, onlyLimit(limiter));
+
+        statuses.add(429);
+        statuses.add(429);
+        call(limiter);
+        call(limiter);
+        // Never below one
+        assertEquals(1, onlyLimit(limiter));
+    }
+
+    @Test
+    void busyCallsRaiseTheLimitIdleCapacityDoesNot() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = limiter("1", "64", "0");
+        call(limiter);
+        // One call in flight of a limit of one: +1/limit
+        assertEquals(2, onlyLimit(limiter));
+        for (int i = 0; i < 20; i++) {
+            call(limiter);
+        }
+        // One call at a time uses less than half of a limit above two
+        assertEquals(2, onlyLimit(limiter));
+    }
+
+    @Test
+    void limitStaysWithinTheMax() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = limiter("1", "1", "0");
+        call(limiter);
+        call(limiter);
+        assertEquals(1, onlyLimit(limiter));
+    }
+
+    @Test
+    void throttledCallsAreRetried() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = limiter("8", "64", "2");
+        statuses.add(429);
+        statuses.add(429);
+        assertEquals(200, call(limiter));
+        assertEquals(3, requests.get());
+        assertEquals(2, onlyLimit(limiter));
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(String initialLimit, String maxLimit, String maxRetries) {
+        Properties config = new Properties();
+        config.setProperty("url", "https://das.example/das-api/v1/requests");
+        config.setProperty("adaptiveInitialLimit", initialLimit);
+        config.setProperty("adaptiveMaxLimit", maxLimit);
+        config.setProperty("adaptiveMaxRetries", maxRetries);
+        return new AdaptiveConcurrencyLimiter(config);
+    }
+
+    private int call(AdaptiveConcurrencyLimiter limiter) throws IOException {
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(limiter).build();
+        try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+            return response.code();
+        }
+    }
+
+    private static int onlyLimit(AdaptiveConcurrencyLimiter limiter) {
+        assertEquals(1, limiter.getLimits().size());
+        return limiter.getLimits().values().iterator().next();
+    }
+}
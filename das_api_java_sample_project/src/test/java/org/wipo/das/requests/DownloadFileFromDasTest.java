@@ -0,0 +1,189 @@
+package org.wipo.das.requests;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Content-Range parsing and resuming of streamed and segmented downloads, against a local server that serves
+ * byte ranges of one document and honours {@code If-Range}.
+ */
+class DownloadFileFromDasTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @TempDir
+    Path folder;
+
+    private final byte[] document = new byte[1000];
+    private final OkHttpClient client = new OkHttpClient();
+    private final AtomicLong served = new AtomicLong();
+    private volatile boolean honourIfRange = true;
+    private HttpServer server;
+    private String url;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        new Random(1).nextBytes(document);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/document", this::serveRange);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/document";
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void parsesContentRange() {
+        assertArrayEquals(new long[]{0, 0, 1234}, DownloadFileFromDas.contentRange("bytes 0-0/1234"));
+        assertArrayEquals(new long[]{500, 999, 1000}, DownloadFileFromDas.contentRange(" bytes 500-999/1000 "));
+        assertArrayEquals(new long[]{-1, -1, 1234}, DownloadFileFromDas.contentRange("bytes */1234"));
+        assertNull(DownloadFileFromDas.contentRange(null));
+        assertNull(DownloadFileFromDas.contentRange("bytes 0-9/*"));
+        assertNull(DownloadFileFromDas.contentRange("items 0-9/10"));
+    }
+
+    @Test
+    void resumesSegmentOfTheSameRange() throws IOException {
+        Path target = folder.resolve("doc.pdf");
+        Files.write(folder.resolve("doc.pdf.part-0-249"), Arrays.copyOf(document, 100));
+        Files.write(folder.resolve("doc.pdf.segments"), List.of("doc.pdf.part-0-249"));
+        Files.write(folder.resolve("doc.pdf.validator"), List.of("1000", ETAG));
+
+        assertEquals(1000, new DownloadFileFromDas(client, url, target, 4, 10).download());
+        assertArrayEquals(document, Files.readAllBytes(target));
+        assertEquals(List.of("doc.pdf"), List.of(folder.toFile().list()));
+        // The probe byte and all but the 100 bytes already held
+        assertEquals(901, served.get());
+    }
+
+    @Test
+    void discardsSegmentsOfAChangedDocument() throws IOException {
+        Path target = folder.resolve("doc.pdf");
+        Files.write(folder.resolve("doc.pdf.part-0-249"), new byte[100]);
+        Files.write(folder.resolve("doc.pdf.segments"), List.of("doc.pdf.part-0-249"));
+        Files.write(folder.resolve("doc.pdf.validator"), List.of("1000", "\"v0\""));
+
+        new DownloadFileFromDas(client, url, target, 4, 10).download();
+        assertArrayEquals(document, Files.readAllBytes(target));
+        assertEquals(List.of("doc.pdf"), List.of(folder.toFile().list()));
+    }
+
+    @Test
+    void resumesStreamOfTheSameDocument() throws IOException {
+        Path target = folder.resolve("doc.pdf");
+        Files.write(folder.resolve("doc.pdf.part"), Arrays.copyOf(document, 400));
+        Files.write(folder.resolve("doc.pdf.validator"), List.of("1000", ETAG));
+
+        assertEquals(1000, new DownloadFileFromDas(client, url, target).download());
+        assertArrayEquals(document, Files.readAllBytes(target));
+        assertEquals(600, served.get());
+        assertEquals(List.of("doc.pdf"), List.of(folder.toFile().list()));
+    }
+
+    @Test
+    void restartsStreamOfAChangedDocument() throws IOException {
+        Path target = folder.resolve("doc.pdf");
+        Files.write(folder.resolve("doc.pdf.part"), new byte[400]);
+        Files.write(folder.resolve("doc.pdf.validator"), List.of("1000", "\"v0\""));
+
+        new DownloadFileFromDas(client, url, target).download();
+        assertArrayEquals(document, Files.readAllBytes(target));
+        assertEquals(1000, served.get());
+    }
+
+    @Test
+    void restartsStreamWithoutValidator() throws IOException {
+        Path target = folder.resolve("doc.pdf");
+        Files.write(folder.resolve("doc.pdf.part"), new byte[400]);
+
+        new DownloadFileFromDas(client, url, target).download();
+        assertArrayEquals(document, Files.readAllBytes(target));
+    }
+
+    @Test
+    void completePartOfAnotherDocumentOfTheSameLengthIsNotKept() throws IOException {
+        Path target = folder.resolve("doc.pdf");
+        Files.write(folder.resolve("doc.pdf.part"), new byte[1000]);
+        Files.write(folder.resolve("doc.pdf.validator"), List.of("1000", "\"v0\""));
+        // Answers 416 to the range past the end instead of the whole changed document
+        honourIfRange = false;
+
+        new DownloadFileFromDas(client, url, target).download();
+        assertArrayEquals(document, Files.readAllBytes(target));
+    }
+
+    @Test
+    void discardsSegmentsOfAnEarlierSplit() throws IOException {
+        Path target = folder.resolve("doc.pdf");
+        // Left by a run that split the document in two; the bytes would land at the wrong offsets now
+        Files.write(folder.resolve("doc.pdf.part-0-499"), new byte[100]);
+        Files.write(folder.resolve("doc.pdf.part-500-999"), new byte[50]);
+        Files.write(folder.resolve("doc.pdf.segments"), List.of("doc.pdf.part-0-499", "doc.pdf.part-500-999"));
+
+        new DownloadFileFromDas(client, url, target, 4, 10).download();
+        assertArrayEquals(document, Files.readAllBytes(target));
+        assertEquals(List.of("doc.pdf"), List.of(folder.toFile().list()));
+    }
+
+    @Test
+    void discardsSegmentsWhenNoLongerSplit() throws IOException {
+        Path target = folder.resolve("doc.pdf");
+        Files.write(folder.resolve("doc.pdf.part-0-249"), new byte[10]);
+        Files.write(folder.resolve("doc.pdf.segments"), List.of("doc.pdf.part-0-249"));
+
+        new DownloadFileFromDas(client, url, target, 4, 5000).download();
+        assertArrayEquals(document, Files.readAllBytes(target));
+        assertFalse(Files.exists(folder.resolve("doc.pdf.part-0-249")));
+        assertFalse(Files.exists(folder.resolve("doc.pdf.segments")));
+    }
+
+    private void serveRange(HttpExchange exchange) throws IOException {
+        try (exchange; OutputStream out = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (range == null || honourIfRange && ifRange != null && !ifRange.equals(ETAG)) {
+                exchange.sendResponseHeaders(200, document.length);
+                out.write(document);
+                served.addAndGet(document.length);
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            int start = Integer.parseInt(bounds[0]);
+            int end = bounds[1].isEmpty() ? document.length - 1 : Integer.parseInt(bounds[1]);
+            if (start >= document.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + document.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + document.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            out.write(document, start, end - start + 1);
+            served.addAndGet(end - start + 1);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.wipo.das.state;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reconciliation of the embedded store with a CSV edited between two runs.
+ */
+class H2StateStoreTest {
+
+    private static final String HEADER = "\"priority_number\",\"priority_date\",\"registered\",\"note\"";
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void csvEditsBetweenOpensAreReconciled() throws Exception {
+        Path csv = folder.resolve("m.csv");
+        Files.write(csv, List.of(HEADER,
+                "\"P1\",\"2023-01-01\",\"\",\"a\"",
+                "\"P2\",\"2023-01-02\",\"\",\"\"",
+                "\"P3\",\"2023-01-03\",\"\",\"\""));
+        try (H2StateStore store = open(csv, new Properties())) {
+            store.update(2, new int[]{2}, new String[]{"true"});
+        }
+
+        // A row added on top, P1 edited and moved below P2, P3 removed
+        Files.write(csv, List.of(HEADER,
+                "\"P4\",\"2023-01-04\",\"\",\"\"",
+                "\"P2\",\"2023-01-02\",\"true\",\"\"",
+                "\"P1\",\"2023-01-01\",\"\",\"b\""));
+        try (H2StateStore store = open(csv, new Properties())) {
+            List<ManifestRow> pending = store.nextRows(StateStore.PENDING, 0, 10);
+            assertEquals(2, pending.size());
+            assertArrayEquals(new String[]{"P4", "2023-01-04", "", ""}, pending.get(0).getCells());
+            assertEquals(3, pending.get(1).getIndex());
+            assertArrayEquals(new String[]{"P1", "2023-01-01", "", "b"}, pending.get(1).getCells());
+            assertEquals(2, store.nextRows(StateStore.DONE, 0, 10).get(0).getIndex());
+            assertTrue(store.findRows("P3", "2023-01-03").isEmpty());
+            assertEquals(4, store.toArray().length);
+        }
+    }
+
+    @Test
+    void storedStateWinsOverUnchangedCsvRows() throws Exception {
+        Path csv = folder.resolve("m.csv");
+        Files.write(csv, List.of(HEADER,
+                "\"P1\",\"2023-01-01\",\"\",\"\"",
+                "\"P1\",\"2023-01-01\",\"\",\"\""));
+        Properties config = new Properties();
+        config.setProperty("stateExportCsv", "false");
+        try (H2StateStore store = open(csv, config)) {
+            store.update(2, new int[]{2}, new String[]{"true"});
+        }
+
+        // Not exported, so the CSV lags behind the store; a row is inserted above
+        Files.write(csv, List.of(HEADER,
+                "\"P0\",\"2023-01-01\",\"\",\"\"",
+                "\"P1\",\"2023-01-01\",\"\",\"\"",
+                "\"P1\",\"2023-01-01\",\"\",\"\""));
+        try (H2StateStore store = open(csv, config)) {
+            List<ManifestRow> done = store.nextRows(StateStore.DONE, 0, 10);
+            assertEquals(1, done.size());
+            assertEquals(3, done.get(0).getIndex());
+            assertEquals(2, store.nextRows(StateStore.PENDING, 0, 10).size());
+        }
+    }
+
+    private static H2StateStore open(Path csv, Properties config) throws Exception {
+        Properties columns = new Properties();
+        columns.setProperty("columnPriorityNumber", "0");
+        columns.setProperty("columnPriorityDate", "1");
+        columns.setProperty("columnRegistered", "2");
+        return new H2StateStore(config, csv, new RegistrationRow.Columns(columns));
+    }
+}
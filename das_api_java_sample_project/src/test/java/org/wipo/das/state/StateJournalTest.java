@@ -0,0 +1,138 @@
+package org.wipo.das.state;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Crash safety of the CSV state: journal round-trip, a torn last record, and replay when the store is opened.
+ */
+class StateJournalTest {
+
+    private static final StateColumns COLUMNS = columns(2);
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void appendedRecordsReplayWithEscapedValues() throws Exception {
+        Path file = folder.resolve("m.csv.journal");
+        try (StateJournal journal = new StateJournal(file, 1000)) {
+            journal.append(1, new int[]{1, 2}, new String[]{"tab\there", "line\nbreak\\"});
+            journal.append(2, new int[]{0}, new String[]{"x"});
+            journal.append(1, new int[]{1}, new String[]{"later"});
+            assertEquals(3, journal.getRecords());
+        }
+
+        PendingUpdates updates = new PendingUpdates();
+        assertEquals(3, StateJournal.replay(file, updates));
+        assertArrayEquals(new String[]{"a", "later", "line\nbreak\\"}, updates.apply(1, new String[]{"a", "b", "c"}));
+        assertArrayEquals(new String[]{"x", "b", "c"}, updates.apply(2, new String[]{"a", "b", "c"}));
+        assertArrayEquals(new String[]{"a", "b", "c"}, updates.apply(3, new String[]{"a", "b", "c"}));
+    }
+
+    @Test
+    void tornLastRecordIsIgnored() throws Exception {
+        Path file = folder.resolve("m.csv.journal");
+        try (StateJournal journal = new StateJournal(file, 1000)) {
+            journal.append(1, new int[]{2}, new String[]{"true"});
+        }
+        // A crash in the middle of the next append
+        Files.write(file, "2\t2\ttr".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        PendingUpdates updates = new PendingUpdates();
+        assertEquals(1, StateJournal.replay(file, updates));
+        assertArrayEquals(new String[]{"a", "b", "true"}, updates.apply(1, new String[]{"a", "b", ""}));
+        assertArrayEquals(new String[]{"a", "b", ""}, updates.apply(2, new String[]{"a", "b", ""}));
+    }
+
+    @Test
+    void recordWithNonNumericPositionsIsSkipped() throws Exception {
+        Path file = folder.resolve("m.csv.journal");
+        // A crash left a block of NULs, and the next run appended after it
+        Files.writeString(file, "1\t2\ttrue\n" + "\0".repeat(16) + "2\t2\ttrue\n3\tx\ttrue\n4\t2\ttrue\n",
+                StandardCharsets.UTF_8);
+
+        PendingUpdates updates = new PendingUpdates();
+        assertEquals(2, StateJournal.replay(file, updates));
+        assertArrayEquals(new String[]{"a", "b", "true"}, updates.apply(1, new String[]{"a", "b", ""}));
+        assertArrayEquals(new String[]{"a", "b", ""}, updates.apply(2, new String[]{"a", "b", ""}));
+        assertArrayEquals(new String[]{"a", "b", ""}, updates.apply(3, new String[]{"a", "b", ""}));
+        assertArrayEquals(new String[]{"a", "b", "true"}, updates.apply(4, new String[]{"a", "b", ""}));
+    }
+
+    @Test
+    void storeFoldsJournalLeftByCrashIntoCsv() throws Exception {
+        Path csv = folder.resolve("m.csv");
+        Files.write(csv, List.of(
+                "\"priority_number\",\"priority_date\",\"registered\"",
+                "\"P1\",\"2023-01-01\",\"\"",
+                "\"P2\",\"2023-01-02\",\"\""));
+        Files.writeString(csv.resolveSibling("m.csv.journal"), "1\t2\ttrue\n2\t2\ttr", StandardCharsets.UTF_8);
+
+        CsvStateStore store = new CsvStateStore(new Properties(), csv, COLUMNS);
+        List<ManifestRow> pending = store.nextRows(StateStore.PENDING, 0, 10);
+        assertEquals(1, pending.size());
+        assertEquals(2, pending.get(0).getIndex());
+        store.close();
+
+        assertEquals(List.of(
+                "\"priority_number\",\"priority_date\",\"registered\"",
+                "\"P1\",\"2023-01-01\",\"true\"",
+                "\"P2\",\"2023-01-02\",\"\""), Files.readAllLines(csv));
+        assertFalse(Files.exists(csv.resolveSibling("m.csv.journal")));
+    }
+
+    @Test
+    void updatesSurviveUntilClose() throws Exception {
+        Path csv = folder.resolve("m.csv");
+        Files.write(csv, List.of("\"priority_number\",\"priority_date\",\"registered\"", "\"P1\",\"2023-01-01\",\"\""));
+
+        CsvStateStore store = new CsvStateStore(new Properties(), csv, COLUMNS);
+        store.update(1, new int[]{2}, new String[]{"true"});
+        // Journaled, not yet folded into the CSV
+        assertEquals("\"P1\",\"2023-01-01\",\"\"", Files.readAllLines(csv).get(1));
+        assertEquals(0, store.nextRows(StateStore.PENDING, 0, 10).size());
+        store.close();
+
+        assertEquals("\"P1\",\"2023-01-01\",\"true\"", Files.readAllLines(csv).get(1));
+    }
+
+    @Test
+    void statusColumnComesFromConfig() throws Exception {
+        Path csv = folder.resolve("m.csv");
+        Files.write(csv, List.of("\"priority_number\",\"priority_date\",\"done\"", "\"P1\",\"2023-01-01\",\"true\""));
+
+        CsvStateStore store = new CsvStateStore(new Properties(), csv, COLUMNS);
+        assertEquals(0, store.nextRows(StateStore.PENDING, 0, 10).size());
+        store.close();
+    }
+
+    @Test
+    void headerThatDisagreesWithConfigFailsFast() throws Exception {
+        Path csv = folder.resolve("m.csv");
+        Files.write(csv, List.of("\"priority_number\",\"priority_date\",\"registered\",\"note\"", "\"P1\",\"2023-01-01\",\"\",\"\""));
+
+        assertThrows(IllegalArgumentException.class, () -> new CsvStateStore(new Properties(), csv, columns(3)));
+        assertThrows(IllegalArgumentException.class, () -> new CsvStateStore(new Properties(), csv, columns(4)));
+    }
+
+    private static StateColumns columns(int status) {
+        Properties config = new Properties();
+        config.setProperty("columnPriorityNumber", "0");
+        config.setProperty("columnPriorityDate", "1");
+        config.setProperty("columnRegistered", String.valueOf(status));
+        return new RegistrationRow.Columns(config);
+    }
+}